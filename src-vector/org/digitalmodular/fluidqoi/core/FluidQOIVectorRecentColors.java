@@ -0,0 +1,54 @@
+package org.digitalmodular.fluidqoi.core;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Recent colors that are scanned with SIMD instructions, comparing as many colors at once as the preferred vector
+ * width allows (8 with AVX2, 16 with AVX-512).
+ * <p>
+ * This lives in a separate source root, because the Vector API is still incubating and needs
+ * {@code --add-modules jdk.incubator.vector} to compile and to run. {@link FluidQOIRecentColors#create} loads it
+ * reflectively, and falls back to the scalar searches when it's missing.
+ * <p>
+ * The colors of every format are already packed in an int by the encoders (and the 16-bit formats are only widened),
+ * so this one implementation serves all formats.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+final class FluidQOIVectorRecentColors extends FluidQOIRecentColors {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	/** The start of the last vector, which may extend past the end of the list */
+	private final int                 lastStart;
+	/** Masks out the padding of the last vector */
+	private final VectorMask<Integer> lastMask;
+
+	FluidQOIVectorRecentColors(int length) {
+		// Padded to whole vectors, so every vector can be loaded without bounds checks.
+		super(length, SPECIES.loopBound(length + SPECIES.length() - 1));
+
+		lastStart = colors.length - SPECIES.length();
+		lastMask = SPECIES.indexInRange(lastStart, length);
+	}
+
+	@Override
+	int find(int color) {
+		IntVector key = IntVector.broadcast(SPECIES, color);
+
+		for (int i = 0; i < lastStart; i += SPECIES.length()) {
+			VectorMask<Integer> equal = IntVector.fromArray(SPECIES, colors, i).compare(VectorOperators.EQ, key);
+			if (equal.anyTrue()) {
+				return i + equal.firstTrue();
+			}
+		}
+
+		VectorMask<Integer> equal = IntVector.fromArray(SPECIES, colors, lastStart)
+		                                     .compare(VectorOperators.EQ, key)
+		                                     .and(lastMask);
+		return equal.anyTrue() ? lastStart + equal.firstTrue() : -1;
+	}
+}
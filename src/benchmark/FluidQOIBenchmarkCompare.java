@@ -0,0 +1,274 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two result files of {@link FluidQOIBenchmarkMain} and exits with status 1 when the current run regressed
+ * against the baseline run.
+ * <p>
+ * A configuration (format, image class, indexLength and operation) has a speed regression when it became slower by
+ * more than the threshold, <em>and</em> a one-sided Welch's t-test on the samples says the slowdown is significant.
+ * The t-test needs at least 2 samples in both runs (see {@code FluidQOIBenchmarkMain -n}). Without them, only the
+ * threshold is checked, and the output says so.
+ * It has a compression regression when the encoded size grew by more than the ratio tolerance. Since encoding is
+ * deterministic, the encoded size needs no statistics.
+ * <p>
+ * Usage: {@code FluidQOIBenchmarkCompare [options] <baseline.csv> <current.csv>}
+ * <pre>
+ * -t percent   Slowdowns smaller than this are never reported (default: 5)
+ * -a alpha     Significance level of the t-test (default: 0.01)
+ * -r percent   Tolerance for growth of the encoded size (default: 0)
+ * </pre>
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public final class FluidQOIBenchmarkCompare {
+	private static double thresholdPercent = 5;
+	private static double alpha            = 0.01;
+	private static double ratioPercent     = 0;
+
+	private FluidQOIBenchmarkCompare() {
+	}
+
+	public static void main(String... args) throws IOException {
+		List<Path> files = new ArrayList<>(2);
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("-")) {
+				files.add(Paths.get(arg));
+				continue;
+			}
+
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for option " + arg);
+			}
+
+			String value = args[++i];
+			switch (arg) {
+				case "-t":
+					thresholdPercent = Double.parseDouble(value);
+					break;
+				case "-a":
+					alpha = Double.parseDouble(value);
+					break;
+				case "-r":
+					ratioPercent = Double.parseDouble(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (files.size() != 2) {
+			System.err.println("Usage: FluidQOIBenchmarkCompare [options] <baseline.csv> <current.csv>");
+			System.exit(2);
+		}
+
+		List<FluidQOIBenchmarkResult> baseline = FluidQOIBenchmarkResult.readCsv(files.get(0));
+		List<FluidQOIBenchmarkResult> current  = FluidQOIBenchmarkResult.readCsv(files.get(1));
+
+		int regressions = compare(baseline, current);
+
+		if (regressions > 0) {
+			System.out.println(regressions + " regression(s) found");
+			System.exit(1);
+		}
+
+		System.out.println("No regressions found");
+	}
+
+	/**
+	 * @return The number of regressions.
+	 */
+	static int compare(List<FluidQOIBenchmarkResult> baseline, List<FluidQOIBenchmarkResult> current) {
+		Map<String, FluidQOIBenchmarkResult> baselineByKey = new LinkedHashMap<>(baseline.size() * 2);
+		for (FluidQOIBenchmarkResult result : baseline) {
+			baselineByKey.put(result.getKey(), result);
+		}
+
+		int regressions = 0;
+		int untested    = 0;
+
+		System.out.println("Format    Image class           Index Operation      Baseline    Current   Change  p-value  Size change");
+
+		for (FluidQOIBenchmarkResult result : current) {
+			FluidQOIBenchmarkResult base = baselineByKey.remove(result.getKey());
+			if (base == null) {
+				System.out.println("New configuration (not in baseline): " + result.getKey());
+				continue;
+			}
+
+			double change     = result.getMeanNsPerPixel() / base.getMeanNsPerPixel() - 1;
+			double pValue     = welchPValue(base.getSamples(), result.getSamples());
+			double sizeChange = result.getEncodedBytes() / (double)base.getEncodedBytes() - 1;
+
+			// Too few samples for the t-test, so every slowdown beyond the threshold counts.
+			boolean tested = !Double.isNaN(pValue);
+			boolean slower = change * 100 > thresholdPercent && (!tested || pValue < alpha);
+			boolean larger = sizeChange * 100 > ratioPercent;
+
+			String verdict = "";
+			if (!tested) {
+				untested++;
+				verdict += " (threshold only)";
+			}
+			if (slower) {
+				verdict += " SLOWER";
+				regressions++;
+			}
+			if (larger) {
+				verdict += " LARGER";
+				regressions++;
+			}
+
+			System.out.printf("%-9s %-20s %6d %-13s %9.3f %10.3f %+7.1f%% %8.5f %+11.3f%%%s\n",
+			                  result.getFormat(), result.getImageClass(), result.getIndexLength(),
+			                  result.getOperation(), base.getMeanNsPerPixel(), result.getMeanNsPerPixel(),
+			                  change * 100, pValue, sizeChange * 100, verdict);
+		}
+
+		for (String key : baselineByKey.keySet()) {
+			System.out.println("Missing configuration (only in baseline): " + key);
+		}
+
+		if (untested > 0) {
+			System.out.println(untested + " configuration(s) have fewer than 2 samples, so their speed was checked " +
+			                   "against the threshold only, without the t-test");
+		}
+
+		return regressions;
+	}
+
+	/**
+	 * One-sided Welch's t-test.
+	 *
+	 * @return The probability that the mean of {@code current} is at least this much larger than the mean of
+	 * {@code baseline}, when in reality they're equal, or {@code NaN} when either has fewer than 2 samples.
+	 */
+	static double welchPValue(double[] baseline, double[] current) {
+		if (baseline.length < 2 || current.length < 2) {
+			return Double.NaN;
+		}
+
+		double meanB = mean(baseline);
+		double meanC = mean(current);
+		double varB  = variance(baseline, meanB) / baseline.length;
+		double varC  = variance(current, meanC) / current.length;
+
+		if (varB + varC == 0) {
+			return meanC > meanB ? 0 : 1;
+		}
+
+		double t  = (meanC - meanB) / Math.sqrt(varB + varC);
+		double df = (varB + varC) * (varB + varC) /
+		            (varB * varB / (baseline.length - 1) + varC * varC / (current.length - 1));
+
+		// Survival function of Student's t distribution, via the regularized incomplete beta function
+		double tail = 0.5 * regularizedIncompleteBeta(df / (df + t * t), df / 2, 0.5);
+		return t > 0 ? tail : 1 - tail;
+	}
+
+	private static double mean(double[] samples) {
+		double sum = 0;
+		for (double sample : samples) {
+			sum += sample;
+		}
+
+		return sum / samples.length;
+	}
+
+	private static double variance(double[] samples, double mean) {
+		double sum = 0;
+		for (double sample : samples) {
+			sum += (sample - mean) * (sample - mean);
+		}
+
+		return sum / (samples.length - 1);
+	}
+
+	/**
+	 * Regularized incomplete beta function I<sub>x</sub>(a, b), evaluated with Lentz's continued fraction.
+	 */
+	private static double regularizedIncompleteBeta(double x, double a, double b) {
+		if (x <= 0) {
+			return 0;
+		} else if (x >= 1) {
+			return 1;
+		}
+
+		// The continued fraction converges quickly only for x < (a + 1) / (a + b + 2)
+		if (x > (a + 1) / (a + b + 2)) {
+			return 1 - regularizedIncompleteBeta(1 - x, b, a);
+		}
+
+		double logFront = a * Math.log(x) + b * Math.log(1 - x) - logBeta(a, b);
+
+		double tiny = 1.0e-300;
+		double f    = 1;
+		double c    = 1;
+		double d    = 0;
+		for (int i = 0; i <= 300; i++) {
+			int    m = i / 2;
+			double numerator;
+			if (i == 0) {
+				numerator = 1;
+			} else if ((i & 1) == 0) {
+				numerator = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+			} else {
+				numerator = -((a + m) * (a + b + m) * x) / ((a + 2 * m) * (a + 2 * m + 1));
+			}
+
+			d = 1 + numerator * d;
+			if (Math.abs(d) < tiny) {
+				d = tiny;
+			}
+			d = 1 / d;
+
+			c = 1 + numerator / c;
+			if (Math.abs(c) < tiny) {
+				c = tiny;
+			}
+
+			double cd = c * d;
+			f *= cd;
+
+			if (Math.abs(1 - cd) < 1.0e-12) {
+				break;
+			}
+		}
+
+		return Math.exp(logFront) * (f - 1) / a;
+	}
+
+	private static double logBeta(double a, double b) {
+		return logGamma(a) + logGamma(b) - logGamma(a + b);
+	}
+
+	/**
+	 * Lanczos approximation of ln(Γ(x)), for x > 0.
+	 */
+	private static double logGamma(double x) {
+		double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+		                         -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+
+		double y   = x;
+		double tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+
+		double series = 1.000000000190015;
+		for (double coefficient : coefficients) {
+			series += coefficient / ++y;
+		}
+
+		return -tmp + Math.log(2.5066282746310005 * series / x);
+	}
+}
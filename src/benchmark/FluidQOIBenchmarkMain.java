@@ -0,0 +1,381 @@
+package benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+
+import org.digitalmodular.fluidqoi.FluidQOIConfig;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIHeader;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIRecentColorSearch;
+import org.digitalmodular.fluidqoi.core.FluidQOI555Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI555Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI565Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI565Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI8888Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI8888Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI888Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI888Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIEncoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIInterleavedByteDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIPackedShortDecoder;
+
+/**
+ * Measures the throughput of every {@code core} encoder and decoder, for every combination of format, image class
+ * and indexLength. This is a quick alternative to {@link FluidQOIJmhBenchmark} that also reports the compression
+ * ratio, works with directories of images, and writes the CSV files of {@link FluidQOIBenchmarkCompare}.
+ * <p>
+ * Like JMH, every configuration runs a number of warmup iterations before the measurement iterations, and every
+ * iteration repeats the workload until a minimum time has elapsed. The workload of one configuration is encoding (or
+ * decoding) every image of one image class once.
+ * <p>
+ * Usage: {@code FluidQOIBenchmarkMain [options] [<imageClassDirectory>...]}
+ * <pre>
+ * -f formats        Comma-separated list of formats (default: all)
+ * -i indexLengths   Comma-separated list of indexLengths (default: 1,4,16,64)
+ * -w count          Number of warmup iterations (default: 5)
+ * -n count          Number of measurement iterations (default: 10)
+ * -t millis         Minimum duration of one iteration (default: 200)
+ * -o file           Write the results (including every sample) as CSV to this file
+ * -s seed           Seed of the synthetic corpus (default: 0)
+ * -r searches       Comma-separated list of recent color searches to encode with, side by side, as separate
+ *                   operations like {@code encode:HASHED} (default: only the default search, as {@code encode})
+ * </pre>
+ * Every directory is one image class, named after the directory, containing all PNG files below it. Without
+ * directories, the deterministic synthetic corpus of {@link FluidQOICorpusGenerator} is used, so results are
+ * comparable between machines.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public final class FluidQOIBenchmarkMain {
+	static final String ENCODE = "encode";
+	static final String DECODE = "decode";
+
+	private static FluidQOIFormat[]            formats             = FluidQOIFormat.values();
+	private static int[]                       indexLengths        = {1, 4, 16, 64};
+	private static int                         warmups             = 5;
+	private static int                         iterations          = 10;
+	private static long                        iterationNs         = 200_000_000L;
+	private static Path                        resultFile          = null;
+	private static long                        corpusSeed          = FluidQOICorpusGenerator.DEFAULT_SEED;
+	/** {@code null} to encode only with the default search */
+	private static FluidQOIRecentColorSearch[] recentColorSearches = null;
+
+	/** Prevents the JIT from eliminating the workload as dead code */
+	@SuppressWarnings({"PublicField", "StaticNonFinalField"})
+	public static volatile int blackhole = 0;
+
+	private FluidQOIBenchmarkMain() {
+	}
+
+	public static void main(String... args) throws IOException {
+		FluidQOIRawEncoder.debugging = false;
+		FluidQOIRawDecoder.debugging = false;
+
+		List<Path> directories = parseArguments(args);
+
+		Map<String, List<SourceImage>> imageClasses = new LinkedHashMap<>(16);
+		for (Path directory : directories) {
+			imageClasses.put(directory.getFileName().toString(), loadImages(directory));
+		}
+
+		if (imageClasses.isEmpty()) {
+			for (FluidQOICorpusGenerator.ImageClass imageClass : FluidQOICorpusGenerator.ImageClass.values()) {
+				List<SourceImage> images = FluidQOICorpusGenerator.generate(imageClass,
+				                                                            corpusSeed,
+				                                                            FluidQOICorpusGenerator.DEFAULT_COUNT,
+				                                                            FluidQOICorpusGenerator.DEFAULT_WIDTH,
+				                                                            FluidQOICorpusGenerator.DEFAULT_HEIGHT)
+				                                                  .stream()
+				                                                  .map(SourceImage::new)
+				                                                  .collect(Collectors.toList());
+				imageClasses.put(imageClass.directoryName(), images);
+			}
+		}
+
+		List<FluidQOIBenchmarkResult> results = run(imageClasses);
+
+		if (resultFile != null) {
+			FluidQOIBenchmarkResult.writeCsv(resultFile, results);
+			System.out.println("Results written to " + resultFile);
+		}
+	}
+
+	private static List<Path> parseArguments(String... args) {
+		List<Path> directories = new ArrayList<>(args.length);
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("-")) {
+				directories.add(Paths.get(arg));
+				continue;
+			}
+
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for option " + arg);
+			}
+
+			String value = args[++i];
+			switch (arg) {
+				case "-f":
+					formats = Arrays.stream(value.split(","))
+					                .map(FluidQOIFormat::valueOf)
+					                .toArray(FluidQOIFormat[]::new);
+					break;
+				case "-i":
+					indexLengths = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+					break;
+				case "-w":
+					warmups = Integer.parseInt(value);
+					break;
+				case "-n":
+					iterations = Integer.parseInt(value);
+					break;
+				case "-t":
+					iterationNs = Long.parseLong(value) * 1_000_000L;
+					break;
+				case "-o":
+					resultFile = Paths.get(value);
+					break;
+				case "-s":
+					corpusSeed = Long.parseLong(value);
+					break;
+				case "-r":
+					recentColorSearches = Arrays.stream(value.split(","))
+					                            .map(FluidQOIRecentColorSearch::valueOf)
+					                            .toArray(FluidQOIRecentColorSearch[]::new);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		return directories;
+	}
+
+	private static List<SourceImage> loadImages(Path directory) throws IOException {
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(directory)) {
+			files = stream.filter(file -> file.getFileName().toString().endsWith(".png"))
+			              .sorted()
+			              .collect(Collectors.toList());
+		}
+
+		List<SourceImage> images = new ArrayList<>(files.size());
+		for (Path file : files) {
+			BufferedImage image = ImageIO.read(file.toFile());
+			if (image != null) {
+				images.add(new SourceImage(image));
+			}
+		}
+
+		return images;
+	}
+
+	static List<FluidQOIBenchmarkResult> run(Map<String, List<SourceImage>> imageClasses) {
+		List<FluidQOIBenchmarkResult> results = new ArrayList<>(256);
+
+		if (recentColorSearches != null && !FluidQOIRecentColorSearch.VECTOR.isAvailable() &&
+		    Arrays.asList(recentColorSearches).contains(FluidQOIRecentColorSearch.VECTOR)) {
+			System.out.println("Note: VECTOR is not available (run with --add-modules jdk.incubator.vector and " +
+			                   "src-vector on the classpath), so it measures the AUTO search");
+		}
+
+		System.out.println("Format    Image class           Index Operation        Ratio   ns/pixel (±stddev)   Mpixel/s      MB/s");
+
+		for (FluidQOIFormat format : formats) {
+			for (Map.Entry<String, List<SourceImage>> imageClass : imageClasses.entrySet()) {
+				for (int indexLength : indexLengths) {
+					List<FluidQOIBenchmarkResult> configResults;
+					try {
+						configResults = benchmark(format, imageClass.getKey(), imageClass.getValue(), indexLength);
+					} catch (IllegalArgumentException ex) {
+						System.out.printf("%-9s %-20s %6d skipped: %s\n",
+						                  format, imageClass.getKey(), indexLength, ex.getMessage());
+						continue;
+					}
+
+					for (FluidQOIBenchmarkResult result : configResults) {
+						System.out.printf("%-9s %-20s %6d %-13s %8.4f %10.3f (±%6.3f) %10.2f %9.2f\n",
+						                  result.getFormat(), result.getImageClass(), result.getIndexLength(),
+						                  result.getOperation(), result.getCompressionRatio(),
+						                  result.getMeanNsPerPixel(), result.getStdDevNsPerPixel(),
+						                  result.getPixelsPerSecond() / 1.0e6, result.getMegabytesPerSecond());
+					}
+
+					results.addAll(configResults);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	private static List<FluidQOIBenchmarkResult> benchmark(
+			FluidQOIFormat format, String imageClass, List<SourceImage> images, int indexLength) {
+		FluidQOIDecoder decoder = makeDecoder(format);
+
+		long pixels = 0;
+		for (SourceImage image : images) {
+			pixels += (long)image.width * image.height;
+		}
+		long rawBytes = pixels * format.getBytesPerPixel();
+
+		List<FluidQOIBenchmarkResult> results = new ArrayList<>(8);
+
+		List<ByteBuffer> encodedImages = new ArrayList<>(images.size());
+		long             encodedBytes  = 0;
+		FluidQOIEncoder  encoder       = makeEncoder(format, new FluidQOIConfig(indexLength));
+		for (SourceImage image : images) {
+			ByteBuffer encoded = encode(encoder, format, image);
+			encodedImages.add(encoded);
+			encodedBytes += encoded.remaining();
+		}
+
+		if (recentColorSearches == null) {
+			double[] encodeSamples = measureEncode(encoder, format, images, pixels);
+			results.add(new FluidQOIBenchmarkResult(
+					format, imageClass, indexLength, ENCODE, pixels, rawBytes, encodedBytes, encodeSamples));
+		} else {
+			for (FluidQOIRecentColorSearch search : recentColorSearches) {
+				FluidQOIConfig config = new FluidQOIConfig(indexLength).setRecentColorSearch(search);
+
+				double[] encodeSamples = measureEncode(makeEncoder(format, config), format, images, pixels);
+				results.add(new FluidQOIBenchmarkResult(format, imageClass, indexLength, ENCODE + ':' + search,
+				                                        pixels, rawBytes, encodedBytes, encodeSamples));
+			}
+		}
+
+		double[] decodeSamples = measure(pixels, () -> {
+			for (int i = 0; i < images.size(); i++) {
+				SourceImage image   = images.get(i);
+				ByteBuffer  encoded = encodedImages.get(i).duplicate().position(FluidQOIHeader.LENGTH);
+				blackhole += decode(decoder, encoded, format, image, indexLength);
+			}
+		});
+
+		results.add(new FluidQOIBenchmarkResult(
+				format, imageClass, indexLength, DECODE, pixels, rawBytes, encodedBytes, decodeSamples));
+		return results;
+	}
+
+	private static double[] measureEncode(
+			FluidQOIEncoder encoder, FluidQOIFormat format, List<SourceImage> images, long pixels) {
+		return measure(pixels, () -> {
+			for (SourceImage image : images) {
+				blackhole += encode(encoder, format, image).remaining();
+			}
+		});
+	}
+
+	static ByteBuffer encode(FluidQOIEncoder encoder, FluidQOIFormat format, SourceImage image) {
+		encoder.beginEncoding(image.width, image.height, format);
+		encoder.encodePixels(image.argb, 0, image.argb.length);
+		return encoder.finishEncoding();
+	}
+
+	/**
+	 * Decodes into a new array, like the decoder would when it creates an image.
+	 *
+	 * @return The length of the array, to feed the blackhole.
+	 */
+	static int decode(
+			FluidQOIDecoder decoder, ByteBuffer encoded, FluidQOIFormat format, SourceImage image, int indexLength) {
+		int pixels = image.width * image.height;
+
+		if (decoder instanceof FluidQOIPackedShortDecoder) {
+			short[] decoded = new short[pixels];
+			((FluidQOIPackedShortDecoder)decoder).decode(encoded, indexLength, decoded);
+			return decoded.length;
+		} else {
+			byte[] decoded = new byte[pixels * format.getBytesPerPixel()];
+			((FluidQOIInterleavedByteDecoder)decoder).decode(encoded, indexLength, decoded);
+			return decoded.length;
+		}
+	}
+
+	/**
+	 * @return The average time per pixel (in nanoseconds) of every measurement iteration.
+	 */
+	private static double[] measure(long pixels, Runnable workload) {
+		double[] samples = new double[iterations];
+
+		for (int iteration = -warmups; iteration < iterations; iteration++) {
+			long operations = 0;
+			long start      = System.nanoTime();
+			long end;
+			do {
+				workload.run();
+				operations++;
+				end = System.nanoTime();
+			} while (end - start < iterationNs);
+
+			if (iteration >= 0) {
+				samples[iteration] = (end - start) / (double)(operations * pixels);
+			}
+		}
+
+		return samples;
+	}
+
+	static FluidQOIEncoder makeEncoder(FluidQOIFormat format, FluidQOIConfig config) {
+		switch (format.getEncoder()) {
+			case 3:
+				return new FluidQOI888Encoder(config);
+			case 4:
+				return new FluidQOI8888Encoder(config);
+			case 5:
+				return new FluidQOI555Encoder(config);
+			case 6:
+				return new FluidQOI565Encoder(config);
+			default:
+				throw new AssertionError("Unimplemented encoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+	}
+
+	static FluidQOIDecoder makeDecoder(FluidQOIFormat format) {
+		switch (format.getEncoder()) {
+			case 3:
+				return new FluidQOI888Decoder();
+			case 4:
+				return new FluidQOI8888Decoder();
+			case 5:
+				return new FluidQOI555Decoder();
+			case 6:
+				return new FluidQOI565Decoder();
+			default:
+				throw new AssertionError("Unimplemented decoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+	}
+
+	/**
+	 * An image, pre-converted to non-premultiplied ARGB, so the conversion is not part of the measurement.
+	 */
+	static final class SourceImage {
+		final int   width;
+		final int   height;
+		final int[] argb;
+
+		SourceImage(BufferedImage image) {
+			width = image.getWidth();
+			height = image.getHeight();
+			argb = image.getRGB(0, 0, width, height, null, 0, width);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+
+/**
+ * The measurements of one benchmark configuration (format, image class, indexLength and operation).
+ * <p>
+ * Every sample is the average time in nanoseconds per pixel of one measurement iteration.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+public final class FluidQOIBenchmarkResult {
+	private static final String CSV_HEADER = "format,imageClass,indexLength,operation,pixels,rawBytes,encodedBytes,nsPerPixel";
+
+	private final FluidQOIFormat format;
+	private final String         imageClass;
+	private final int            indexLength;
+	private final String         operation;
+	private final long           pixels;
+	private final long           rawBytes;
+	private final long           encodedBytes;
+	private final double[]       samples;
+
+	public FluidQOIBenchmarkResult(FluidQOIFormat format,
+	                               String imageClass,
+	                               int indexLength,
+	                               String operation,
+	                               long pixels,
+	                               long rawBytes,
+	                               long encodedBytes,
+	                               double[] samples) {
+		this.format = format;
+		this.imageClass = imageClass;
+		this.indexLength = indexLength;
+		this.operation = operation;
+		this.pixels = pixels;
+		this.rawBytes = rawBytes;
+		this.encodedBytes = encodedBytes;
+		this.samples = samples.clone();
+	}
+
+	public FluidQOIFormat getFormat() {
+		return format;
+	}
+
+	public String getImageClass() {
+		return imageClass;
+	}
+
+	public int getIndexLength() {
+		return indexLength;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public long getPixels() {
+		return pixels;
+	}
+
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+	public long getEncodedBytes() {
+		return encodedBytes;
+	}
+
+	public double[] getSamples() {
+		return samples.clone();
+	}
+
+	/**
+	 * @return A string that uniquely identifies the configuration (but not the measurements) of this result.
+	 */
+	public String getKey() {
+		return format + "/" + imageClass + "/" + indexLength + "/" + operation;
+	}
+
+	public double getCompressionRatio() {
+		return encodedBytes / (double)rawBytes;
+	}
+
+	public double getMeanNsPerPixel() {
+		double sum = 0;
+		for (double sample : samples) {
+			sum += sample;
+		}
+
+		return sum / samples.length;
+	}
+
+	public double getStdDevNsPerPixel() {
+		if (samples.length < 2) {
+			return 0;
+		}
+
+		double mean = getMeanNsPerPixel();
+		double sum  = 0;
+		for (double sample : samples) {
+			sum += (sample - mean) * (sample - mean);
+		}
+
+		return Math.sqrt(sum / (samples.length - 1));
+	}
+
+	public double getPixelsPerSecond() {
+		return 1.0e9 / getMeanNsPerPixel();
+	}
+
+	/**
+	 * @return The throughput in raw (uncompressed) megabytes per second.
+	 */
+	public double getMegabytesPerSecond() {
+		return getPixelsPerSecond() * rawBytes / pixels / 1.0e6;
+	}
+
+	public static void writeCsv(Path file, List<FluidQOIBenchmarkResult> results) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			out.println(CSV_HEADER);
+
+			for (FluidQOIBenchmarkResult result : results) {
+				StringJoiner sj = new StringJoiner(" ");
+				for (double sample : result.samples) {
+					sj.add(String.format(Locale.ROOT, "%.4f", sample));
+				}
+
+				out.printf(Locale.ROOT, "%s,%s,%d,%s,%d,%d,%d,%s\n",
+				           result.format, result.imageClass, result.indexLength, result.operation,
+				           result.pixels, result.rawBytes, result.encodedBytes, sj);
+			}
+		}
+	}
+
+	public static List<FluidQOIBenchmarkResult> readCsv(Path file) throws IOException {
+		List<FluidQOIBenchmarkResult> results = new ArrayList<>(256);
+
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = in.readLine();
+			if (!CSV_HEADER.equals(line)) {
+				throw new IOException("Not a benchmark result file: " + file);
+			}
+
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				String[] fields = line.split(",", -1);
+				if (fields.length != 8) {
+					throw new IOException("Bad line in " + file + ": " + line);
+				}
+
+				try {
+					double[] samples = Arrays.stream(fields[7].trim().split(" "))
+					                         .mapToDouble(Double::parseDouble)
+					                         .toArray();
+
+					results.add(new FluidQOIBenchmarkResult(FluidQOIFormat.valueOf(fields[0]),
+					                                        fields[1],
+					                                        Integer.parseInt(fields[2]),
+					                                        fields[3],
+					                                        Long.parseLong(fields[4]),
+					                                        Long.parseLong(fields[5]),
+					                                        Long.parseLong(fields[6]),
+					                                        samples));
+				} catch (IllegalArgumentException ex) {
+					throw new IOException("Bad line in " + file + ": " + line, ex);
+				}
+			}
+		}
+
+		return results;
+	}
+}
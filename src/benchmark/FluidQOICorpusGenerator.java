@@ -0,0 +1,426 @@
+package benchmark;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates deterministic synthetic images, one class of images for every kind of content that stresses a different
+ * path in the encoders and decoders.
+ * <p>
+ * All images are a pure function of (image class, seed, index, width, height). Only {@link Random} (of which the
+ * algorithm is part of its specification) and integer arithmetic are used, so the pixels are identical on every
+ * machine and JVM. Use {@link #checksum(BufferedImage)} to verify this.
+ * <p>
+ * Usage: {@code FluidQOICorpusGenerator [options] <outputDirectory>}
+ * <pre>
+ * -s seed     The seed of the corpus (default: 0)
+ * -n count    Number of images per image class (default: 8)
+ * -w width    Width of every image (default: 256)
+ * -h height   Height of every image (default: 256)
+ * </pre>
+ * This writes one subdirectory with PNG files per image class, and a file {@code checksums.txt} with the CRC32 of
+ * the pixel data of every image.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public final class FluidQOICorpusGenerator {
+	public static final long DEFAULT_SEED   = 0;
+	public static final int  DEFAULT_COUNT  = 8;
+	public static final int  DEFAULT_WIDTH  = 256;
+	public static final int  DEFAULT_HEIGHT = 256;
+
+	public enum ImageClass {
+		/** Flat areas from a small palette. Stresses OP_REPEAT and OP_INDEX */
+		PIXEL_ART,
+		/** Smooth multi-color gradients. Stresses OP_LUMA222 and OP_LUMA644 */
+		GRADIENT,
+		/** Smooth shapes with heavy per-channel noise. Stresses OP_MASK3 and OP_MASK4 */
+		NOISY_PHOTO,
+		/** Shaded blobs with soft edges on a transparent background. Stresses OP_LUMA4444 */
+		SPRITE_ALPHA,
+		/** Gradients and flat areas in native RGB565. Stresses OP_LUMA322, OP_LUMA433 and OP_RGB565 */
+		NATIVE_565,
+		/** Gradients and flat areas in native RGB555. Stresses OP_LUMA222 and OP_RGB555 */
+		NATIVE_555;
+
+		public String directoryName() {
+			return name().toLowerCase(Locale.ROOT).replace('_', '-');
+		}
+	}
+
+	private FluidQOICorpusGenerator() {
+	}
+
+	public static void main(String... args) throws IOException {
+		long seed   = DEFAULT_SEED;
+		int  count  = DEFAULT_COUNT;
+		int  width  = DEFAULT_WIDTH;
+		int  height = DEFAULT_HEIGHT;
+		Path output = null;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("-")) {
+				output = Paths.get(arg);
+				continue;
+			}
+
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for option " + arg);
+			}
+
+			String value = args[++i];
+			switch (arg) {
+				case "-s":
+					seed = Long.parseLong(value);
+					break;
+				case "-n":
+					count = Integer.parseInt(value);
+					break;
+				case "-w":
+					width = Integer.parseInt(value);
+					break;
+				case "-h":
+					height = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (output == null) {
+			System.err.println("No output directory specified");
+			System.exit(1);
+		}
+
+		writeCorpus(output, seed, count, width, height);
+	}
+
+	public static void writeCorpus(Path output, long seed, int count, int width, int height) throws IOException {
+		try (PrintWriter checksums = new PrintWriter(
+				Files.newBufferedWriter(output.resolve("checksums.txt"), StandardCharsets.UTF_8))) {
+			for (ImageClass imageClass : ImageClass.values()) {
+				Path directory = Files.createDirectories(output.resolve(imageClass.directoryName()));
+
+				List<BufferedImage> images = generate(imageClass, seed, count, width, height);
+				for (int i = 0; i < images.size(); i++) {
+					BufferedImage image = images.get(i);
+					String filename = String.format(Locale.ROOT, "%s_%03d.png", imageClass.directoryName(), i);
+
+					ImageIO.write(image, "png", directory.resolve(filename).toFile());
+					checksums.printf(Locale.ROOT, "%s/%s %08x\n",
+					                 imageClass.directoryName(), filename, checksum(image));
+				}
+			}
+		}
+
+		System.out.println("Corpus written to " + output);
+	}
+
+	public static List<BufferedImage> generate(ImageClass imageClass, long seed, int count, int width, int height) {
+		List<BufferedImage> images = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			images.add(generateImage(imageClass, seed, i, width, height));
+		}
+
+		return images;
+	}
+
+	public static BufferedImage generateImage(ImageClass imageClass, long seed, int index, int width, int height) {
+		Random random = new Random(seed * 1_000_003L + imageClass.ordinal() * 10_007L + index);
+
+		switch (imageClass) {
+			case PIXEL_ART:
+				return generatePixelArt(random, width, height);
+			case GRADIENT:
+				return generateGradient(random, width, height);
+			case NOISY_PHOTO:
+				return generateNoisyPhoto(random, width, height);
+			case SPRITE_ALPHA:
+				return generateSpriteAlpha(random, width, height);
+			case NATIVE_565:
+				return generateNativeShort(random, width, height, BufferedImage.TYPE_USHORT_565_RGB);
+			case NATIVE_555:
+				return generateNativeShort(random, width, height, BufferedImage.TYPE_USHORT_555_RGB);
+			default:
+				throw new AssertionError("Unknown image class: " + imageClass);
+		}
+	}
+
+	/**
+	 * @return The CRC32 of the raw pixel data (not of any file representation) of the image.
+	 */
+	public static long checksum(BufferedImage image) {
+		DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+		CRC32      crc        = new CRC32();
+
+		if (dataBuffer instanceof DataBufferInt) {
+			for (int value : ((DataBufferInt)dataBuffer).getData()) {
+				crc.update(value >> 24);
+				crc.update(value >> 16);
+				crc.update(value >> 8);
+				crc.update(value);
+			}
+		} else if (dataBuffer instanceof DataBufferUShort) {
+			for (short value : ((DataBufferUShort)dataBuffer).getData()) {
+				crc.update(value >> 8);
+				crc.update(value);
+			}
+		} else {
+			throw new AssertionError("Unknown data buffer: " + dataBuffer.getClass());
+		}
+
+		return crc.getValue();
+	}
+
+	private static BufferedImage generatePixelArt(Random random, int width, int height) {
+		BufferedImage image  = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[]         pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+
+		int[] palette = new int[4 + random.nextInt(13)];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = random.nextInt(0x1000000);
+		}
+
+		fillRect(pixels, width, 0, 0, width, height, palette[0]);
+
+		// Blocky shapes snapped to a grid, each with a one-pixel outline
+		int grid   = 1 << (1 + random.nextInt(3));
+		int shapes = width * height / 512;
+		for (int i = 0; i < shapes; i++) {
+			int x      = random.nextInt(width) / grid * grid;
+			int y      = random.nextInt(height) / grid * grid;
+			int w      = (1 + random.nextInt(8)) * grid;
+			int h      = (1 + random.nextInt(8)) * grid;
+			int fill   = palette[random.nextInt(palette.length)];
+			int border = palette[random.nextInt(palette.length)];
+
+			fillRect(pixels, width, x, y, w, h, border);
+			fillRect(pixels, width, x + 1, y + 1, w - 2, h - 2, fill);
+		}
+
+		return image;
+	}
+
+	private static BufferedImage generateGradient(Random random, int width, int height) {
+		BufferedImage image  = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[]         pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+
+		// Fixed-point (8 bits fraction) start color and per-pixel increments, per channel
+		int[] start = new int[3];
+		int[] dx    = new int[3];
+		int[] dy    = new int[3];
+		for (int c = 0; c < 3; c++) {
+			start[c] = random.nextInt(256) << 8;
+			dx[c] = random.nextInt(257) - 128;
+			dy[c] = random.nextInt(257) - 128;
+		}
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int argb = 0;
+				for (int c = 0; c < 3; c++) {
+					argb = argb << 8 | triangle((start[c] + x * dx[c] + y * dy[c]) >> 8);
+				}
+
+				pixels[y * width + x] = argb;
+			}
+		}
+
+		return image;
+	}
+
+	private static BufferedImage generateNoisyPhoto(Random random, int width, int height) {
+		BufferedImage image  = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[]         pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+
+		int     cell      = 8 << random.nextInt(3);
+		int[][] base      = new int[3][];
+		int     amplitude = 8 + random.nextInt(41);
+		for (int c = 0; c < 3; c++) {
+			base[c] = valueNoise(random, width, height, cell);
+		}
+
+		for (int i = 0; i < pixels.length; i++) {
+			int argb = 0;
+			for (int c = 0; c < 3; c++) {
+				int value = base[c][i] + random.nextInt(amplitude * 2 + 1) - amplitude;
+				argb = argb << 8 | Math.max(0, Math.min(255, value));
+			}
+
+			pixels[i] = argb;
+		}
+
+		return image;
+	}
+
+	private static BufferedImage generateSpriteAlpha(Random random, int width, int height) {
+		BufferedImage image  = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[]         pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+
+		int sprites = 2 + random.nextInt(6);
+		for (int i = 0; i < sprites; i++) {
+			int cx     = random.nextInt(width);
+			int cy     = random.nextInt(height);
+			int radius = 4 + random.nextInt(Math.max(1, Math.min(width, height) / 4));
+			int edge   = 1 + random.nextInt(8); // Width of the soft edge in pixels
+			int r      = random.nextInt(256);
+			int g      = random.nextInt(256);
+			int b      = random.nextInt(256);
+
+			for (int y = Math.max(0, cy - radius); y < Math.min(height, cy + radius); y++) {
+				for (int x = Math.max(0, cx - radius); x < Math.min(width, cx + radius); x++) {
+					int distance = isqrt((x - cx) * (x - cx) + (y - cy) * (y - cy));
+					if (distance >= radius) {
+						continue;
+					}
+
+					int alpha = Math.min(255, (radius - distance) * 255 / edge);
+					int shade = (x - cx + y - cy) * 48 / radius; // Simple diagonal lighting
+
+					int argb = alpha << 24 |
+					           Math.max(0, Math.min(255, r - shade)) << 16 |
+					           Math.max(0, Math.min(255, g - shade)) << 8 |
+					           Math.max(0, Math.min(255, b - shade));
+
+					// Overlapping sprites: keep the most opaque one
+					if (alpha > pixels[y * width + x] >>> 24) {
+						pixels[y * width + x] = argb;
+					}
+				}
+			}
+		}
+
+		return image;
+	}
+
+	private static BufferedImage generateNativeShort(Random random, int width, int height, int imageType) {
+		BufferedImage image  = new BufferedImage(width, height, imageType);
+		short[]       pixels = ((DataBufferUShort)image.getRaster().getDataBuffer()).getData();
+
+		int greenBits = imageType == BufferedImage.TYPE_USHORT_565_RGB ? 6 : 5;
+
+		// Fixed-point (8 bits fraction) gradient in native channel units
+		int r0  = random.nextInt(32) << 8;
+		int g0  = random.nextInt(1 << greenBits) << 8;
+		int b0  = random.nextInt(32) << 8;
+		int rdx = random.nextInt(65) - 32;
+		int gdy = random.nextInt(65) - 32;
+		int bdx = random.nextInt(65) - 32;
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = triangle((r0 + x * rdx + y * gdy) >> 8, 31);
+				int g = triangle((g0 + y * gdy + x * bdx) >> 8, (1 << greenBits) - 1);
+				int b = triangle((b0 + x * bdx + y * rdx) >> 8, 31);
+
+				pixels[y * width + x] = (short)(r << (5 + greenBits) | g << 5 | b);
+			}
+		}
+
+		// Flat UI-like panels on top of the gradient
+		int panels = 1 + random.nextInt(8);
+		for (int i = 0; i < panels; i++) {
+			int x     = random.nextInt(width);
+			int y     = random.nextInt(height);
+			int w     = 1 + random.nextInt(Math.max(1, width / 2));
+			int h     = 1 + random.nextInt(Math.max(1, height / 2));
+			int color = random.nextInt(0x10000);
+			if (greenBits == 5) {
+				color &= 0x7FFF;
+			}
+
+			for (int v = y; v < Math.min(height, y + h); v++) {
+				for (int u = x; u < Math.min(width, x + w); u++) {
+					pixels[v * width + u] = (short)color;
+				}
+			}
+		}
+
+		return image;
+	}
+
+	private static void fillRect(int[] pixels, int width, int x, int y, int w, int h, int argb) {
+		int height = pixels.length / width;
+		for (int v = Math.max(0, y); v < Math.min(height, y + h); v++) {
+			for (int u = Math.max(0, x); u < Math.min(width, x + w); u++) {
+				pixels[v * width + u] = argb;
+			}
+		}
+	}
+
+	/**
+	 * Smooth noise with values in [0, 255], made by bilinear interpolation of a grid of random values.
+	 */
+	private static int[] valueNoise(Random random, int width, int height, int cell) {
+		int   gridWidth  = width / cell + 2;
+		int   gridHeight = height / cell + 2;
+		int[] grid       = new int[gridWidth * gridHeight];
+		for (int i = 0; i < grid.length; i++) {
+			grid[i] = random.nextInt(256);
+		}
+
+		int[] values = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			int gy = y / cell;
+			int fy = y % cell;
+			for (int x = 0; x < width; x++) {
+				int gx = x / cell;
+				int fx = x % cell;
+
+				int v00 = grid[gy * gridWidth + gx];
+				int v01 = grid[gy * gridWidth + gx + 1];
+				int v10 = grid[(gy + 1) * gridWidth + gx];
+				int v11 = grid[(gy + 1) * gridWidth + gx + 1];
+
+				int top    = v00 * (cell - fx) + v01 * fx;
+				int bottom = v10 * (cell - fx) + v11 * fx;
+				values[y * width + x] = (top * (cell - fy) + bottom * fy) / (cell * cell);
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Folds any integer into [0, 255] as a triangle wave, so gradients bounce instead of wrapping or clipping.
+	 */
+	private static int triangle(int value) {
+		return triangle(value, 255);
+	}
+
+	private static int triangle(int value, int max) {
+		int period = max * 2;
+		value = Math.floorMod(value, period);
+		return value <= max ? value : period - value;
+	}
+
+	private static int isqrt(int value) {
+		int root = (int)Math.sqrt(value);
+		// Correct for any floating-point rounding, so the result is exact on every platform
+		while (root * root > value) {
+			root--;
+		}
+		while ((root + 1) * (root + 1) <= value) {
+			root++;
+		}
+
+		return root;
+	}
+}
@@ -0,0 +1,151 @@
+package benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.digitalmodular.fluidqoi.FluidQOIConfig;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIHeader;
+import org.digitalmodular.fluidqoi.core.FluidQOIDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIEncoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark of every {@code core} encoder and decoder, for every combination of format, image class of the
+ * synthetic corpus ({@link FluidQOICorpusGenerator}) and indexLength.
+ * <p>
+ * One invocation encodes (or decodes) every image of the image class once, and every pixel counts as one operation,
+ * so the score is in pixels per second. The secondary score {@code bytes} is the throughput of uncompressed pixel
+ * data, in bytes per second. The decoders are measured reading from heap buffers and from direct buffers (like
+ * memory-mapped files).
+ * <p>
+ * Usage: {@code java -jar jmh/target/benchmarks.jar [<JMH options>]}. For example, {@code -p format=RGB565
+ * -p indexLength=16,64} selects a subset of the parameters.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-18
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings({"PublicField", "WeakerAccess"})
+public class FluidQOIJmhBenchmark {
+	/** The number of pixels of every image class */
+	private static final int PIXELS = FluidQOICorpusGenerator.DEFAULT_COUNT *
+	                                  FluidQOICorpusGenerator.DEFAULT_WIDTH *
+	                                  FluidQOICorpusGenerator.DEFAULT_HEIGHT;
+
+	/** All formats */
+	@Param
+	public FluidQOIFormat                     format;
+	/** All image classes */
+	@Param
+	public FluidQOICorpusGenerator.ImageClass imageClass;
+	@Param({"1", "4", "16", "64"})
+	public int                                indexLength;
+
+	private List<FluidQOIBenchmarkMain.SourceImage> images;
+	private List<ByteBuffer>                        encodedImages;
+	private FluidQOIEncoder                         encoder;
+	private FluidQOIDecoder                         decoder;
+
+	/**
+	 * Counts the uncompressed pixel data, which JMH reports per second.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * The encoded images, in the kind of buffer that's decoded from.
+	 */
+	@State(Scope.Benchmark)
+	public static class Input {
+		/** Decodes from direct buffers instead of heap buffers */
+		@Param({"false", "true"})
+		public boolean direct;
+
+		private List<ByteBuffer> encodedImages;
+
+		@Setup
+		public void setup(FluidQOIJmhBenchmark benchmark) {
+			encodedImages = new ArrayList<>(benchmark.encodedImages.size());
+			for (ByteBuffer encoded : benchmark.encodedImages) {
+				ByteBuffer buffer = direct ?
+				                    ByteBuffer.allocateDirect(encoded.remaining()) :
+				                    ByteBuffer.allocate(encoded.remaining());
+				encodedImages.add(buffer.put(encoded.duplicate()).flip());
+			}
+		}
+	}
+
+	@Setup
+	public void setup() {
+		List<FluidQOIBenchmarkMain.SourceImage> images = new ArrayList<>(FluidQOICorpusGenerator.DEFAULT_COUNT);
+		for (int i = 0; i < FluidQOICorpusGenerator.DEFAULT_COUNT; i++) {
+			images.add(new FluidQOIBenchmarkMain.SourceImage(FluidQOICorpusGenerator.generateImage(
+					imageClass,
+					FluidQOICorpusGenerator.DEFAULT_SEED,
+					i,
+					FluidQOICorpusGenerator.DEFAULT_WIDTH,
+					FluidQOICorpusGenerator.DEFAULT_HEIGHT)));
+		}
+
+		this.images = images;
+		encoder = FluidQOIBenchmarkMain.makeEncoder(format, new FluidQOIConfig(indexLength));
+		decoder = FluidQOIBenchmarkMain.makeDecoder(format);
+
+		encodedImages = new ArrayList<>(images.size());
+		for (FluidQOIBenchmarkMain.SourceImage image : images) {
+			ByteBuffer encoded = FluidQOIBenchmarkMain.encode(encoder, format, image);
+			encodedImages.add(ByteBuffer.allocate(encoded.remaining()).put(encoded).flip());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public void encode(Counters counters, Blackhole blackhole) {
+		for (FluidQOIBenchmarkMain.SourceImage image : images) {
+			blackhole.consume(FluidQOIBenchmarkMain.encode(encoder, format, image));
+		}
+
+		counters.bytes += (long)PIXELS * format.getBytesPerPixel();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public void decode(Input input, Counters counters, Blackhole blackhole) {
+		for (int i = 0; i < images.size(); i++) {
+			ByteBuffer encoded = input.encodedImages.get(i).duplicate().position(FluidQOIHeader.LENGTH);
+			blackhole.consume(FluidQOIBenchmarkMain.decode(decoder, encoded, format, images.get(i), indexLength));
+		}
+
+		counters.bytes += (long)PIXELS * format.getBytesPerPixel();
+	}
+}
@@ -0,0 +1,78 @@
+package org.digitalmodular.fluidqoi;
+
+/**
+ * The layout of one pixel in a raw pixel buffer.
+ * <p>
+ * For {@code byte[]} and {@link java.nio.ByteBuffer} pixels, the name lists the channels in memory order, so
+ * {@link #RGBA} is the usual R,G,B,A byte order of texture uploads. For {@code int[]} pixels, the name lists the
+ * channels from the most significant byte down, so {@link #ARGB} is {@code 0xAARRGGBB}, like
+ * {@code TYPE_INT_ARGB}. For {@code short[]} pixels, only the packed orders can be used.
+ * <p>
+ * Color values are never premultiplied.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+public enum FluidQOIChannelOrder {
+	//@formatter:off
+	/** 3 bytes per pixel                                                          */ RGB   (3,  0,  1,  2, -1),
+	/** 3 bytes per pixel, like {@code TYPE_3BYTE_BGR}                             */ BGR   (3,  2,  1,  0, -1),
+	/** 4 bytes per pixel                                                          */ RGBA  (4,  0,  1,  2,  3),
+	/** 4 bytes per pixel                                                          */ BGRA  (4,  2,  1,  0,  3),
+	/** 4 bytes per pixel, like {@code TYPE_INT_ARGB}                              */ ARGB  (4,  1,  2,  3,  0),
+	/** 4 bytes per pixel, like {@code TYPE_4BYTE_ABGR}                            */ ABGR  (4,  3,  2,  1,  0),
+	/** 16 bits RGB (5 bits red, 6 bits green, 5 bits blue), in one short          */ RGB565(2, -1, -1, -1, -1),
+	/** 15 bits RGB (5 bits red, 5 bits green, 5 bits blue), in one short          */ RGB555(2, -1, -1, -1, -1);
+	//@formatter:on
+
+	private final int bytesPerPixel;
+	private final int offsetR;
+	private final int offsetG;
+	private final int offsetB;
+	private final int offsetA;
+
+	FluidQOIChannelOrder(int bytesPerPixel, int offsetR, int offsetG, int offsetB, int offsetA) {
+		this.bytesPerPixel = bytesPerPixel;
+		this.offsetR = offsetR;
+		this.offsetG = offsetG;
+		this.offsetB = offsetB;
+		this.offsetA = offsetA;
+	}
+
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+
+	public boolean hasAlpha() {
+		return offsetA >= 0;
+	}
+
+	/**
+	 * @return {@code true} for the orders that are packed in one {@code short} per pixel.
+	 */
+	public boolean isPacked() {
+		return bytesPerPixel == 2;
+	}
+
+	/**
+	 * @return The byte offsets of red, green, blue and (if present) alpha within one pixel.
+	 */
+	public int[] getBandOffsets() {
+		if (isPacked()) {
+			throw new IllegalArgumentException("Channel order can't be used for byte samples: " + this);
+		}
+
+		return hasAlpha() ? new int[]{offsetR, offsetG, offsetB, offsetA} : new int[]{offsetR, offsetG, offsetB};
+	}
+
+	/**
+	 * @return The left-shift of red, green, blue and alpha, when one pixel is packed in an {@code int}.
+	 */
+	int[] getIntShifts() {
+		if (bytesPerPixel != 4) {
+			throw new IllegalArgumentException("Channel order can't be used for int pixels: " + this);
+		}
+
+		return new int[]{(3 - offsetR) * 8, (3 - offsetG) * 8, (3 - offsetB) * 8, (3 - offsetA) * 8};
+	}
+}
@@ -1,12 +1,26 @@
 package org.digitalmodular.fluidqoi;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-25
 public class FluidQOIConfig {
-	private int            indexLength;
-	private FluidQOIFormat formatOverride = null;
+	/**
+	 * The indexLength that chooses the indexLength for every image separately, by trial-encoding a sample of the
+	 * image with several candidates in parallel, within {@link #getAutoIndexLengthBudgetMillis()}.
+	 */
+	public static final int AUTO_INDEX_LENGTH = 0;
+
+	private int                       indexLength;
+	private long                      autoIndexLengthBudgetMillis = 50;
+	private FluidQOIFormat            formatOverride              = null;
+	private FluidQOIRecentColorSearch recentColorSearch           = FluidQOIRecentColorSearch.AUTO;
+
+	private final Map<FluidQOIFormat, FluidQOIOpLayout> opLayouts = new EnumMap<>(FluidQOIFormat.class);
 
 	public FluidQOIConfig(int indexLength) {
 		this.indexLength = indexLength;
@@ -21,6 +35,37 @@ public class FluidQOIConfig {
 		return this;
 	}
 
+	/**
+	 * @param indexLength A length supported by the format, or {@link #AUTO_INDEX_LENGTH}
+	 */
+	FluidQOIConfig withIndexLength(int indexLength) {
+		FluidQOIConfig copy = new FluidQOIConfig(indexLength)
+				.setAutoIndexLengthBudgetMillis(autoIndexLengthBudgetMillis)
+				.setFormatOverride(formatOverride)
+				.setRecentColorSearch(recentColorSearch);
+		copy.opLayouts.putAll(opLayouts);
+		return copy;
+	}
+
+	public long getAutoIndexLengthBudgetMillis() {
+		return autoIndexLengthBudgetMillis;
+	}
+
+	/**
+	 * Sets the time that {@link #AUTO_INDEX_LENGTH} may spend on each image. It's checked between the sampled strips
+	 * of the image, so the search can take one strip longer. When it's {@code 0}, no search is done, and every image
+	 * gets indexLength 16.
+	 */
+	public FluidQOIConfig setAutoIndexLengthBudgetMillis(long autoIndexLengthBudgetMillis) {
+		if (autoIndexLengthBudgetMillis < 0) {
+			throw new IllegalArgumentException("'autoIndexLengthBudgetMillis' can't be negative: " +
+			                                   autoIndexLengthBudgetMillis);
+		}
+
+		this.autoIndexLengthBudgetMillis = autoIndexLengthBudgetMillis;
+		return this;
+	}
+
 	public FluidQOIFormat getFormatOverride() {
 		return formatOverride;
 	}
@@ -29,4 +74,32 @@ public class FluidQOIConfig {
 		this.formatOverride = formatOverride;
 		return this;
 	}
+
+	public FluidQOIRecentColorSearch getRecentColorSearch() {
+		return recentColorSearch;
+	}
+
+	public FluidQOIConfig setRecentColorSearch(FluidQOIRecentColorSearch recentColorSearch) {
+		this.recentColorSearch = Objects.requireNonNull(recentColorSearch, "recentColorSearch");
+		return this;
+	}
+
+	/**
+	 * @return The layout that was set for the format, or else the default layout.
+	 */
+	public FluidQOIOpLayout getOpLayout(FluidQOIFormat format) {
+		FluidQOIOpLayout opLayout = opLayouts.get(format);
+		return opLayout != null ? opLayout : FluidQOIOpLayout.getDefault(format);
+	}
+
+	/**
+	 * Sets the layout for the format of the layout. Every format has its own layout, so one config can hold a layout
+	 * for each of them. Streams with another than the default layout start with {@link FluidQOIHeader#MAGIC_V2}, so
+	 * only decoders that know op layouts accept them.
+	 */
+	public FluidQOIConfig setOpLayout(FluidQOIOpLayout opLayout) {
+		Objects.requireNonNull(opLayout, "opLayout");
+		opLayouts.put(opLayout.getFormat(), opLayout);
+		return this;
+	}
 }
@@ -200,7 +200,7 @@ public class FluidQOIEncoderStatistics {
 		diffLumaChannelCounts[5][da]++;
 	}
 
-	public void add(FluidQOIEncoderStatistics other) {
+	public synchronized void add(FluidQOIEncoderStatistics other) {
 		countIndex += other.countIndex;
 		countLuma222 += other.countLuma222;
 		countLuma4444 += other.countLuma4444;
@@ -6,10 +6,10 @@ package org.digitalmodular.fluidqoi;
 // Created 2022-05-25
 public enum FluidQOIFormat {
 	//@formatter:off
-	/** 24BPP                                                                      */ RGB888   (3, 0),
-	/** 32BPP                                                                      */ RGBA8888 (4, 0),
-	/** 15 bits RGB (5 bits red, 5 bits green, 5 bits blue)                        */ RGB555   (5, 0),
-	/** 16 bits RGB (5 bits red, 6 bits green, 5 bits blue)                        */ RGB565   (6, 0);
+	/** 24BPP                                                                      */ RGB888   (3, 0, 3, FluidQOIChannelOrder.BGR),
+	/** 32BPP                                                                      */ RGBA8888 (4, 0, 4, FluidQOIChannelOrder.ABGR),
+	/** 15 bits RGB (5 bits red, 5 bits green, 5 bits blue)                        */ RGB555   (5, 0, 2, FluidQOIChannelOrder.RGB555),
+	/** 16 bits RGB (5 bits red, 6 bits green, 5 bits blue)                        */ RGB565   (6, 0, 2, FluidQOIChannelOrder.RGB565);
 	//@formatter:on
 
 	/** The lower 5 bits of the code determine the FluidQOI subtype */
@@ -17,13 +17,17 @@ public enum FluidQOIFormat {
 	/** The upper 3 bits of the code determine image properties used to parse and reconstruct images */
 	public static final int META_CODE_MASK    = 0xE0;
 
-	private final int  encoder;
-	private final int  subFormat;
-	private final byte code;
+	private final int                  encoder;
+	private final int                  subFormat;
+	private final int                  bytesPerPixel;
+	private final FluidQOIChannelOrder nativeChannelOrder;
+	private final byte                 code;
 
-	FluidQOIFormat(int encoder, int subFormat) {
+	FluidQOIFormat(int encoder, int subFormat, int bytesPerPixel, FluidQOIChannelOrder nativeChannelOrder) {
 		this.encoder = encoder;
 		this.subFormat = subFormat;
+		this.bytesPerPixel = bytesPerPixel;
+		this.nativeChannelOrder = nativeChannelOrder;
 		code = (byte)(subFormat << 5 | encoder);
 	}
 
@@ -35,6 +39,20 @@ public enum FluidQOIFormat {
 		return subFormat;
 	}
 
+	/**
+	 * @return The size of one uncompressed pixel in this format.
+	 */
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+
+	/**
+	 * @return The channel order in which the decoder of this format produces pixels, without conversion.
+	 */
+	public FluidQOIChannelOrder getNativeChannelOrder() {
+		return nativeChannelOrder;
+	}
+
 	public byte code() {
 		return code;
 	}
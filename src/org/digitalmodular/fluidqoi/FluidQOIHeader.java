@@ -0,0 +1,141 @@
+package org.digitalmodular.fluidqoi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The 16-byte header at the start of every FluidQOI stream.
+ * <p>
+ * This class doesn't depend on AWT, so it can be used to inspect a stream before deciding how to decode it.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17 Split from FluidQOIImageDecoder
+public final class FluidQOIHeader {
+	@SuppressWarnings("CharUsedInArithmeticContext")
+	public static final int MAGIC    = 'f' << 24 |
+	                                   'q' << 16 |
+	                                   'o' << 8 |
+	                                   'i';
+	/**
+	 * The magic of streams with another than the default op layout. Decoders from before op layouts only accept
+	 * {@link #MAGIC}, so they reject these streams instead of decoding them wrongly.
+	 */
+	@SuppressWarnings("CharUsedInArithmeticContext")
+	public static final int MAGIC_V2 = 'f' << 24 |
+	                                   'q' << 16 |
+	                                   'o' << 8 |
+	                                   '2';
+	public static final int LENGTH   = 16;
+
+	/** The largest width or height a decoder accepts */
+	public static final int MAX_DIMENSION = 32768;
+
+	private final int              width;
+	private final int              height;
+	private final FluidQOIFormat   format;
+	private final int              indexLength;
+	private final FluidQOIOpLayout opLayout;
+
+	/**
+	 * Creates a header with the default op layout.
+	 */
+	public FluidQOIHeader(int width, int height, FluidQOIFormat format, int indexLength) {
+		this(width, height, format, indexLength, FluidQOIOpLayout.getDefault(format));
+	}
+
+	public FluidQOIHeader(int width, int height, FluidQOIFormat format, int indexLength, FluidQOIOpLayout opLayout) {
+		if (opLayout.getFormat() != format) {
+			throw new IllegalArgumentException("The op layout is of another format: " + opLayout);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.format = format;
+		this.indexLength = indexLength;
+		this.opLayout = opLayout;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public FluidQOIFormat getFormat() {
+		return format;
+	}
+
+	public int getIndexLength() {
+		return indexLength;
+	}
+
+	public FluidQOIOpLayout getOpLayout() {
+		return opLayout;
+	}
+
+	/**
+	 * @return {@link #MAGIC} for the default op layout, which every decoder can decode, or {@link #MAGIC_V2} for other
+	 * layouts.
+	 */
+	public static int getMagic(FluidQOIOpLayout opLayout) {
+		return opLayout.getCode() == 0 ? MAGIC : MAGIC_V2;
+	}
+
+	/**
+	 * Reads and validates the header at the position of the buffer, and advances the position to the first op.
+	 *
+	 * @throws EOFException When the buffer ends before the end of the header.
+	 */
+	public static FluidQOIHeader read(ByteBuffer in) throws IOException {
+		if (in.remaining() < LENGTH) {
+			throw new EOFException("Truncated header: " + in.remaining() + " bytes");
+		}
+
+		int magic = in.getInt();
+
+		if (magic != MAGIC && magic != MAGIC_V2) { // "fqoi" or "fqo2" in big-endian
+			throw new IOException("Bad 'magic': " + Integer.toString(magic, 16));
+		}
+
+		int width = in.getInt();
+		if (width < 0 || width > MAX_DIMENSION) {
+			throw new IOException("Bad width: " + width);
+		}
+
+		int height = in.getInt();
+		if (height < 0 || height > MAX_DIMENSION) {
+			throw new IOException("Bad height: " + height);
+		}
+
+		int            formatCode = in.get() & 0xFF;
+		FluidQOIFormat format     = FluidQOIFormat.fromCode(formatCode);
+		if (format == null) {
+			throw new IOException("Bad format: " + formatCode);
+		}
+
+		int indexLength = in.get() & 0xFF;
+		if (indexLength == 0 || indexLength == 255) {
+			throw new IOException("Bad indexLength: " + indexLength);
+		}
+
+		int              opLayoutCode = in.get() & 0xFF; // Format-dependent extension 1
+		FluidQOIOpLayout opLayout     = FluidQOIOpLayout.fromCode(format, opLayoutCode);
+		if (opLayout == null || magic != getMagic(opLayout)) {
+			throw new IOException("Bad op layout: " + opLayoutCode);
+		}
+
+		in.get(); // Format-dependent extension 2 (unused here)
+
+		return new FluidQOIHeader(width, height, format, indexLength, opLayout);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + '[' + width + 'x' + height + ", " + format +
+		       ", indexLength=" + indexLength + (opLayout.getCode() == 0 ? "" : ", opLayout=" + opLayout) + ']';
+	}
+}
@@ -1,81 +1,105 @@
 package org.digitalmodular.fluidqoi;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-
-import org.digitalmodular.fluidqoi.core.FluidQOI555Decoder;
-import org.digitalmodular.fluidqoi.core.FluidQOI565Decoder;
-import org.digitalmodular.fluidqoi.core.FluidQOI8888Decoder;
-import org.digitalmodular.fluidqoi.core.FluidQOI888Decoder;
-import org.digitalmodular.fluidqoi.core.FluidQOIDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
+ * Decodes into {@link BufferedImage}s. This is a thin adapter over the decoders that {@link FluidQOIRawDecoder} uses,
+ * which decode straight into the data buffer of the image. Truncated images throw an {@link java.io.EOFException}.
+ *
  * @author Mark Jeronimus
  */
 // Created 2022-05-14
-@SuppressWarnings("ConstantConditions")
 public class FluidQOIImageDecoder {
-	private int            width       = 0;
-	private int            height      = 0;
-	private FluidQOIFormat format      = FluidQOIFormat.RGBA8888;
-	private int            indexLength = 0;
-
+	/**
+	 * @deprecated Use {@link FluidQOIRawDecoder#debugging}. This flag still works for the images decoded by this class.
+	 */
+	@Deprecated
 	@SuppressWarnings({"PublicField", "StaticNonFinalField"})
 	public static boolean debugging = false;
 
+	/**
+	 * @return A new image of type {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR}, {@code TYPE_USHORT_555_RGB} or
+	 * {@code TYPE_USHORT_565_RGB}, depending on the format.
+	 */
 	public BufferedImage decode(ByteBuffer in) throws IOException {
-		readHeader(in);
-
-		FluidQOIDecoder decoder = makeDecoder();
-
-		return decoder.decode(in, width, height, format, indexLength);
+		return decode(null, in);
 	}
 
-	private void readHeader(ByteBuffer in) throws IOException {
-		int magic = in.getInt();
-
-		if (magic != FluidQOIImageEncoder.FLUID_QOI_MAGIC) { // "fqoi" in big-endian
-			throw new IOException("Bad 'magic': " + Integer.toString(magic, 16));
+	/**
+	 * Decodes while reading from the channel, which may be read past the end of the image.
+	 *
+	 * @return A new image of type {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR}, {@code TYPE_USHORT_555_RGB} or
+	 * {@code TYPE_USHORT_565_RGB}, depending on the format.
+	 */
+	public BufferedImage decode(ReadableByteChannel in) throws IOException {
+		try {
+			return decode(in, FluidQOIRawDecoder.beginStreaming(in));
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
 		}
+	}
 
-		width = in.getInt();
-		if (width < 0 || width > 32768) {
-			throw new IOException("Bad width: " + width);
-		}
+	/**
+	 * Decodes while reading from the stream, which may be read past the end of the image. The stream is not closed.
+	 *
+	 * @return A new image of type {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR}, {@code TYPE_USHORT_555_RGB} or
+	 * {@code TYPE_USHORT_565_RGB}, depending on the format.
+	 */
+	public BufferedImage decode(InputStream in) throws IOException {
+		return decode(Channels.newChannel(in));
+	}
 
-		height = in.getInt();
-		if (height < 0 || height > 32768) {
-			throw new IOException("Bad height: " + height);
+	private static BufferedImage decode(ReadableByteChannel channel, ByteBuffer in) throws IOException {
+		// Turn on the debugging of the decoders for this call when only the deprecated flag of this class is set
+		boolean turnedOn = debugging && !FluidQOIRawDecoder.debugging;
+		if (turnedOn) {
+			FluidQOIRawDecoder.debugging = true;
 		}
 
-		int formatCode = in.get() & 0xFF;
-		format = FluidQOIFormat.fromCode(formatCode);
-		if (format == null) {
-			throw new IOException("Bad format: " + formatCode);
+		try {
+			return decodeImage(channel, in);
+		} finally {
+			if (turnedOn) {
+				FluidQOIRawDecoder.debugging = false;
+			}
 		}
+	}
+
+	private static BufferedImage decodeImage(ReadableByteChannel channel, ByteBuffer in) throws IOException {
+		FluidQOIHeader header = FluidQOIHeader.read(in);
+		BufferedImage  image  = new BufferedImage(header.getWidth(), header.getHeight(), getImageType(header));
 
-		indexLength = in.get() & 0xFF;
-		if (indexLength == 0 || indexLength == 255) {
-			throw new IOException("Bad indexLength: " + indexLength);
+		if (header.getFormat().getNativeChannelOrder().isPacked()) {
+			short[] pixels = ((DataBufferUShort)image.getRaster().getDataBuffer()).getData();
+			FluidQOIRawDecoder.decodePixels(channel, in, header, pixels);
+		} else {
+			byte[] pixels = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+			FluidQOIRawDecoder.decodePixels(channel, in, header, pixels);
 		}
 
-		in.get(); // Format-dependent extension 1 (unused here)
-		in.get(); // Format-dependent extension 2 (unused here)
+		return image;
 	}
 
-	private FluidQOIDecoder makeDecoder() {
-		switch (format.getEncoder()) {
-			case 3:
-				return new FluidQOI888Decoder();
-			case 4:
-				return new FluidQOI8888Decoder();
-			case 5:
-				return new FluidQOI555Decoder();
-			case 6:
-				return new FluidQOI565Decoder();
+	private static int getImageType(FluidQOIHeader header) {
+		switch (header.getFormat()) {
+			case RGB888:
+				return BufferedImage.TYPE_3BYTE_BGR;
+			case RGBA8888:
+				return BufferedImage.TYPE_4BYTE_ABGR;
+			case RGB555:
+				return BufferedImage.TYPE_USHORT_555_RGB;
+			case RGB565:
+				return BufferedImage.TYPE_USHORT_565_RGB;
 			default:
-				throw new AssertionError("Unimplemented decoder type: " + format.getEncoder() + " (" + format + ')');
+				throw new AssertionError("Unimplemented format: " + header.getFormat());
 		}
 	}
 }
@@ -1,36 +1,51 @@
 package org.digitalmodular.fluidqoi;
 
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
 import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.Raster;
-import java.awt.image.RenderedImage;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Objects;
 
-import org.digitalmodular.fluidqoi.core.FluidQOI555Encoder;
-import org.digitalmodular.fluidqoi.core.FluidQOI565Encoder;
-import org.digitalmodular.fluidqoi.core.FluidQOI8888Encoder;
-import org.digitalmodular.fluidqoi.core.FluidQOI888Encoder;
 import org.digitalmodular.fluidqoi.core.FluidQOIEncoder;
 
 /**
+ * Encodes {@link BufferedImage}s. This is a thin adapter over {@link FluidQOIRawEncoder}, which can be used on its
+ * own when AWT is not available.
+ * <p>
+ * Unless the config overrides it, the pixels are scanned first to find the smallest format that decodes to exactly
+ * the same pixels: RGBA8888 only when a pixel is not opaque, otherwise RGB555, RGB565 or RGB888, depending on the
+ * number of bits that the channels need. {@code TYPE_USHORT_565_RGB} and {@code TYPE_USHORT_555_RGB} images keep
+ * their own format.
+ *
  * @author Mark Jeronimus
  */
 // Created 2022-05-16
 public final class FluidQOIImageEncoder {
-	@SuppressWarnings("CharUsedInArithmeticContext")
-	public static final int     FLUID_QOI_MAGIC = 'f' << 24 |
-	                                              'q' << 16 |
-	                                              'o' << 8 |
-	                                              'i';
-	@SuppressWarnings({"PublicField", "StaticNonFinalField"})
-	public static       boolean debugging       = false;
+	public static final int FLUID_QOI_MAGIC = FluidQOIHeader.MAGIC;
+	public static final int HEADER_LENGTH   = FluidQOIHeader.LENGTH;
 
-	public static final int HEADER_LENGTH = 16;
+	/**
+	 * @deprecated Use {@link FluidQOIRawEncoder#debugging}. This flag still works for the images encoded by this class.
+	 */
+	@Deprecated
+	@SuppressWarnings({"PublicField", "StaticNonFinalField"})
+	public static boolean debugging = false;
 
 	private final FluidQOIConfig config;
 
@@ -39,17 +54,117 @@ public final class FluidQOIImageEncoder {
 	}
 
 	/**
-	 * @return A new ByteBuffer, backed by a heap array (with royally overestimated capacity), ready to be read.
+	 * @return A ByteBuffer containing exactly the encoded image, backed by a heap array, ready to be read.
 	 */
 	public ByteBuffer encode(BufferedImage image) {
 		Objects.requireNonNull(image, "image");
 
-		FluidQOIFormat  format  = determineFormat(image);
-		FluidQOIEncoder encoder = makeEncoder(format);
+		boolean turnedOn = beginDebugging();
+		try {
+			BufferedImage   source  = convertImage(image);
+			FluidQOIFormat  format  = determineFormat(source);
+			FluidQOIEncoder encoder = makeEncoder(source, format);
+
+			encoder.beginEncoding(source.getWidth(), source.getHeight(), format);
+			encodeImage(source, encoder);
+			return encoder.finishEncoding();
+		} finally {
+			endDebugging(turnedOn);
+		}
+	}
+
+	/**
+	 * @param destination Receives the encoded image, starting at its position, which is moved past the encoded image
+	 * @return The length of the encoded image.
+	 * @throws BufferOverflowException when the encoded image doesn't fit
+	 * @see FluidQOIRawEncoder#getMaxEncodedLength(int, int, FluidQOIChannelOrder)
+	 */
+	public int encode(BufferedImage image, ByteBuffer destination) {
+		Objects.requireNonNull(image, "image");
+		Objects.requireNonNull(destination, "destination");
+
+		boolean turnedOn = beginDebugging();
+		try {
+			BufferedImage   source  = convertImage(image);
+			FluidQOIFormat  format  = determineFormat(source);
+			FluidQOIEncoder encoder = makeEncoder(source, format);
+
+			encoder.beginEncoding(source.getWidth(), source.getHeight(), format, destination);
+			encodeImage(source, encoder);
+			return encoder.finishEncoding().remaining();
+		} finally {
+			endDebugging(turnedOn);
+		}
+	}
+
+	/**
+	 * Streams the encoded image to the channel, through a small block buffer, so the memory use doesn't depend on the
+	 * size of the image.
+	 *
+	 * @param channel Receives the encoded image. It's not closed.
+	 * @return The length of the encoded image.
+	 */
+	public long encode(BufferedImage image, WritableByteChannel channel) throws IOException {
+		Objects.requireNonNull(image, "image");
+		Objects.requireNonNull(channel, "channel");
+
+		boolean turnedOn = beginDebugging();
+		try {
+			BufferedImage   source  = convertImage(image);
+			FluidQOIFormat  format  = determineFormat(source);
+			FluidQOIEncoder encoder = makeEncoder(source, format);
+
+			encoder.beginEncoding(source.getWidth(), source.getHeight(), format, channel);
+			encodeImage(source, encoder);
+			return encoder.finishStreaming();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			endDebugging(turnedOn);
+		}
+	}
+
+	/**
+	 * Streams the encoded image to the stream, through a small block buffer, so the memory use doesn't depend on the
+	 * size of the image.
+	 *
+	 * @param out Receives the encoded image. It's not closed.
+	 * @return The length of the encoded image.
+	 */
+	public long encode(BufferedImage image, OutputStream out) throws IOException {
+		Objects.requireNonNull(out, "out");
+		return encode(image, Channels.newChannel(out));
+	}
+
+	/**
+	 * Turns on {@link FluidQOIRawEncoder#debugging} for one call when only the deprecated flag of this class is set.
+	 *
+	 * @return Whether it was turned on, and has to be turned off again by {@link #endDebugging(boolean)}.
+	 */
+	private static boolean beginDebugging() {
+		if (!debugging || FluidQOIRawEncoder.debugging) {
+			return false;
+		}
+
+		FluidQOIRawEncoder.debugging = true;
+		return true;
+	}
 
-		encoder.beginEncoding(image.getWidth(), image.getHeight(), format);
-		encodeImage(image, encoder);
-		return encoder.finishEncoding();
+	private static void endDebugging(boolean turnedOn) {
+		if (turnedOn) {
+			FluidQOIRawEncoder.debugging = false;
+		}
+	}
+
+	/**
+	 * Makes the encoder, after choosing the indexLength when the config asks for it.
+	 */
+	private FluidQOIEncoder makeEncoder(BufferedImage image, FluidQOIFormat format) {
+		int            width  = image.getWidth();
+		int            height = image.getHeight();
+		FluidQOIConfig config = FluidQOIIndexLengthSearch.resolve(this.config, format, width, height,
+				(encoder, y, stripHeight) -> encodeImage(image.getSubimage(0, y, width, stripHeight), encoder));
+		return FluidQOIRawEncoder.makeEncoder(format, config);
 	}
 
 	private FluidQOIFormat determineFormat(BufferedImage image) {
@@ -57,8 +172,6 @@ public final class FluidQOIImageEncoder {
 			return config.getFormatOverride();
 		}
 
-		// TODO Do actual image analysis to decide the "smallest" required format
-
 		switch (image.getType()) {
 			case BufferedImage.TYPE_USHORT_565_RGB:
 				assert image.getColorModel().getTransparency() == Transparency.OPAQUE;
@@ -69,26 +182,72 @@ public final class FluidQOIImageEncoder {
 				assert !image.getColorModel().hasAlpha();
 				return FluidQOIFormat.RGB555;
 			default:
-				return image.getColorModel().hasAlpha() ? FluidQOIFormat.RGBA8888 : FluidQOIFormat.RGB888;
+				return analyzePixels(image).getSmallestFormat();
 		}
 	}
 
-	private FluidQOIEncoder makeEncoder(FluidQOIFormat format) {
-		switch (format.getEncoder()) {
-			case 3:
-				return new FluidQOI888Encoder(config);
-			case 4:
-				return new FluidQOI8888Encoder(config);
-			case 5:
-				return new FluidQOI555Encoder(config);
-			case 6:
-				return new FluidQOI565Encoder(config);
+	/**
+	 * Reads the pixels directly from the raster, like {@link #encodeImage}. It stops after the row where the format
+	 * becomes certain.
+	 */
+	private static FluidQOIPixelAnalysis analyzePixels(BufferedImage image) {
+		WritableRaster        raster   = image.getRaster();
+		int                   width    = image.getWidth();
+		int                   height   = image.getHeight();
+		// An opaque color model can't have translucent pixels, even when it has alpha.
+		boolean               hasAlpha = image.getColorModel().getTransparency() != Transparency.OPAQUE;
+		FluidQOIPixelAnalysis analysis = new FluidQOIPixelAnalysis(hasAlpha);
+
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_RGB: {
+				int[] pixels = ((DataBufferInt)raster.getDataBuffer()).getData();
+				int   stride = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+				int   offset = getDataOffset(raster, 1, stride);
+				for (int y = 0; y < height && !analysis.isFinal(); y++) {
+					analysis.addPixels(pixels, offset + y * stride, width);
+				}
+
+				break;
+			}
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_3BYTE_BGR: {
+				byte[]               samples     = ((DataBufferByte)raster.getDataBuffer()).getData();
+				ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+				int                  pixelStride = sampleModel.getPixelStride();
+				int                  stride      = sampleModel.getScanlineStride();
+				int                  offset      = getDataOffset(raster, pixelStride, stride);
+				for (int y = 0; y < height && !analysis.isFinal(); y++) {
+					analysis.addPixels(samples, offset + y * stride, width, pixelStride, sampleModel.getBandOffsets());
+				}
+
+				break;
+			}
 			default:
-				throw new AssertionError("Unimplemented encoder type: " + format.getEncoder() + " (" + format + ')');
+				throw new AssertionError("Unconverted image type: " + image.getType());
 		}
+
+		return analysis;
 	}
 
-	private static void encodeImage(RenderedImage image, FluidQOIEncoder encoder) {
+	/**
+	 * Converts the images that {@link #encodeImage} can't read directly, so the pixels that are analyzed are exactly
+	 * the pixels that are encoded. ({@link BufferedImage#getRGB} can differ from the drawn pixels, e.g. for gray
+	 * images, so analyzing those would choose a format that's too small.)
+	 *
+	 * @return The image itself when it can be read directly.
+	 */
+	private static BufferedImage convertImage(BufferedImage image) {
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_USHORT_565_RGB:
+			case BufferedImage.TYPE_USHORT_555_RGB:
+				return image;
+		}
+
 		boolean hasAlpha  = image.getColorModel().hasAlpha();
 		int     imageType = hasAlpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR;
 
@@ -96,36 +255,91 @@ public final class FluidQOIImageEncoder {
 
 		Graphics2D g = convertedImage.createGraphics();
 		try {
+			// SrcOver would premultiply and un-premultiply translucent pixels, which is lossy.
+			g.setComposite(AlphaComposite.Src);
 			g.drawRenderedImage(image, new AffineTransform());
 		} finally {
 			g.dispose();
 		}
 
-		encodeComponentColorModelImage(convertedImage.getRaster(), hasAlpha, encoder);
+		return convertedImage;
+	}
+
+	/**
+	 * Reads the pixels directly from the raster. Other image types have to be converted by {@link #convertImage} first.
+	 */
+	private static void encodeImage(BufferedImage image, FluidQOIEncoder encoder) {
+		WritableRaster raster = image.getRaster();
+
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_ARGB:
+				encodePackedIntImage(raster, true, encoder);
+				break;
+			case BufferedImage.TYPE_INT_RGB:
+				encodePackedIntImage(raster, false, encoder);
+				break;
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				encodeComponentColorModelImage(raster, true, encoder);
+				break;
+			case BufferedImage.TYPE_3BYTE_BGR:
+				encodeComponentColorModelImage(raster, false, encoder);
+				break;
+			case BufferedImage.TYPE_USHORT_565_RGB:
+			case BufferedImage.TYPE_USHORT_555_RGB:
+				encodePackedShortImage(raster, encoder);
+				break;
+			default:
+				throw new AssertionError("Unconverted image type: " + image.getType());
+		}
+	}
+
+	private static void encodePackedIntImage(Raster raster, boolean hasAlpha, FluidQOIEncoder encoder) {
+		int[] pixels = ((DataBufferInt)raster.getDataBuffer()).getData();
+		int   stride = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+
+		int offset = getDataOffset(raster, 1, stride);
+
+		// The unused upper byte of TYPE_INT_RGB is not guaranteed to be 255, so it's ignored.
+		FluidQOIRawEncoder.encodeIntPixels(encoder, pixels, offset, raster.getWidth(), raster.getHeight(), stride,
+		                                   FluidQOIChannelOrder.ARGB, hasAlpha);
 	}
 
 	private static void encodeComponentColorModelImage(Raster raster, boolean hasAlpha, FluidQOIEncoder encoder) {
-		byte[] samples     = ((DataBufferByte)raster.getDataBuffer()).getData();
-		int[]  bandOffsets = ((ComponentSampleModel)raster.getSampleModel()).getBandOffsets();
-
-		int p = 0;
-		if (hasAlpha) {
-			while (p < samples.length) {
-				byte r = samples[p + bandOffsets[0]];
-				byte g = samples[p + bandOffsets[1]];
-				byte b = samples[p + bandOffsets[2]];
-				byte a = samples[p + bandOffsets[3]];
-				encoder.encodePixel(r, g, b, a);
-				p += 4;
-			}
-		} else {
-			while (p < samples.length) {
-				byte r = samples[p + bandOffsets[0]];
-				byte g = samples[p + bandOffsets[1]];
-				byte b = samples[p + bandOffsets[2]];
-				encoder.encodePixel(r, g, b, (byte)255);
-				p += 3;
-			}
+		byte[]               samples     = ((DataBufferByte)raster.getDataBuffer()).getData();
+		ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+		int[]                bandOffsets = sampleModel.getBandOffsets();
+		int                  pixelStride = sampleModel.getPixelStride();
+		int                  stride      = sampleModel.getScanlineStride();
+
+		if (!hasAlpha) {
+			bandOffsets = Arrays.copyOf(bandOffsets, 3);
 		}
+
+		int offset = getDataOffset(raster, pixelStride, stride);
+
+		FluidQOIRawEncoder.encodeBytePixels(encoder, samples, offset, raster.getWidth(), raster.getHeight(), stride,
+		                                    pixelStride, bandOffsets);
+	}
+
+	private static void encodePackedShortImage(Raster raster, FluidQOIEncoder encoder) {
+		short[]                      pixels      = ((DataBufferUShort)raster.getDataBuffer()).getData();
+		SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel)raster.getSampleModel();
+		int                          stride      = sampleModel.getScanlineStride();
+
+		int offset = getDataOffset(raster, 1, stride);
+
+		FluidQOIRawEncoder.encodeShortPixels(encoder, pixels, offset, raster.getWidth(), raster.getHeight(), stride,
+		                                     sampleModel.getBitMasks(), sampleModel.getBitOffsets());
+	}
+
+	/**
+	 * @param pixelStride The number of array elements from one pixel to the next
+	 * @param stride      The number of array elements from one row to the next
+	 * @return The index of the first pixel of the raster in its data array.
+	 */
+	private static int getDataOffset(Raster raster, int pixelStride, int stride) {
+		return raster.getDataBuffer().getOffset() -
+		       raster.getSampleModelTranslateY() * stride -
+		       raster.getSampleModelTranslateX() * pixelStride;
 	}
 }
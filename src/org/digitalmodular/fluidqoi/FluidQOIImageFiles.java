@@ -0,0 +1,46 @@
+package org.digitalmodular.fluidqoi;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads files into {@link BufferedImage}s. This is a thin adapter over {@link FluidQOIFiles}, which maps the files
+ * into memory, and which can be used on its own when AWT is not available.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-18
+public final class FluidQOIImageFiles {
+	private FluidQOIImageFiles() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @return A new image of type {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR}, {@code TYPE_USHORT_555_RGB} or
+	 * {@code TYPE_USHORT_565_RGB}, depending on the format.
+	 * @see FluidQOIImageDecoder#decode(ByteBuffer)
+	 */
+	public static BufferedImage read(Path file) throws IOException {
+		return new FluidQOIImageDecoder().decode(FluidQOIFiles.map(file));
+	}
+
+	/**
+	 * Decodes every {@value FluidQOIFiles#EXTENSION} file in the directory (not in subdirectories), in parallel on the
+	 * common fork-join pool.
+	 *
+	 * @param consumer Receives each file with its image. It's called concurrently from multiple threads, in no
+	 *                 particular order.
+	 * @return The number of files that were decoded.
+	 * @throws IOException When the directory can't be listed, or any file can't be decoded. The cause names the file.
+	 */
+	public static int decodeDirectory(Path directory, BiConsumer<? super Path, ? super BufferedImage> consumer)
+			throws IOException {
+		Objects.requireNonNull(consumer, "consumer");
+
+		return FluidQOIFiles.decodeFiles(directory, file -> consumer.accept(file, read(file)));
+	}
+}
@@ -0,0 +1,231 @@
+package org.digitalmodular.fluidqoi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.digitalmodular.fluidqoi.core.FluidQOIDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIInterleavedByteDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIPackedShortDecoder;
+
+/**
+ * Decodes an image from chunks of arbitrary length as they arrive, for example from the network, instead of waiting for
+ * the final byte. This is a push parser: the caller passes every chunk to {@link #feed(ByteBuffer)}, which decodes as
+ * far as possible, keeps all state (including an op that is cut in two) until the next chunk, and returns the number
+ * of rows that are complete. Those rows can already be converted with {@link #getRows}, to show the image while it
+ * arrives.
+ * <p>
+ * The image is only complete after the zero bytes that follow the last op have arrived as well, like
+ * {@link FluidQOIRawDecoder} requires, so a stream that's cut off never reports a complete image (even though all rows
+ * may be complete). After the image is complete, further bytes are ignored until {@link #reset()} is called. This class
+ * is not thread-safe.
+ *
+ * @author Mark Jeronimus
+ * @see FluidQOIRawDecoder
+ */
+// Created 2026-10-17
+public final class FluidQOIIncrementalDecoder {
+	/**
+	 * Holds the header while it's incomplete, or the start of an op that straddles two chunks. Much longer than the
+	 * longest op, so after topping it up from the next chunk, the straddling op always completes.
+	 */
+	private static final int PENDING_LENGTH = 64;
+
+	private final Map<FluidQOIFormat, FluidQOIDecoder> decoders = new EnumMap<>(FluidQOIFormat.class);
+
+	/** In write mode */
+	private final ByteBuffer pending = ByteBuffer.allocate(PENDING_LENGTH);
+
+	private FluidQOIHeader  header  = null;
+	private FluidQOIDecoder decoder = null;
+	private byte[]          bytes   = null;
+	private short[]         shorts  = null;
+	/** The number of array elements per row */
+	private int             rowLength;
+	/** The number of array elements that are complete */
+	private int             decodedLength;
+	private int             completedRows;
+	/** Whether the zero bytes after the last op have been received */
+	private boolean         ended;
+
+	/**
+	 * Prepares for the next image.
+	 */
+	public void reset() {
+		if (decoder != null) {
+			decoder.finishIncremental();
+		}
+
+		pending.clear();
+		header = null;
+		decoder = null;
+		completedRows = 0;
+		ended = false;
+	}
+
+	/**
+	 * @return The number of rows that are complete.
+	 * @throws IOException When the header is invalid.
+	 * @see #feed(ByteBuffer)
+	 */
+	public int feed(byte[] chunk, int offset, int length) throws IOException {
+		return feed(ByteBuffer.wrap(chunk, offset, length));
+	}
+
+	/**
+	 * Decodes as much as possible of the chunk, and remembers the rest. The position of the chunk is advanced to its
+	 * limit.
+	 *
+	 * @return The number of rows that are complete.
+	 * @throws IOException When the header is invalid.
+	 */
+	public int feed(ByteBuffer chunk) throws IOException {
+		// The decoders only read single bytes, but a duplicate also makes sure the byte order is big-endian.
+		ByteBuffer in = chunk.duplicate();
+		chunk.position(chunk.limit());
+
+		if (header == null) {
+			if (!readHeader(in)) {
+				return 0;
+			}
+		}
+
+		if (isComplete()) {
+			return completedRows;
+		}
+
+		if (pending.position() > 0) {
+			// Top up the start of the straddling op, and decode from there until the chunk can take over.
+			int topUp = Math.min(in.remaining(), pending.remaining());
+			pending.put(in.duplicate().limit(in.position() + topUp));
+			in.position(in.position() + topUp);
+
+			pending.flip();
+			decodeMore(pending);
+
+			if (isComplete()) {
+				pending.clear();
+				return completedRows;
+			} else if (in.hasRemaining()) {
+				// Whatever is left of the top-up is the start of the next op.
+				in.position(in.position() - pending.remaining());
+				pending.clear();
+			} else {
+				pending.compact();
+				return completedRows;
+			}
+		}
+
+		decodeMore(in);
+
+		if (!isComplete()) {
+			pending.put(in);
+		}
+
+		return completedRows;
+	}
+
+	private boolean readHeader(ByteBuffer in) throws IOException {
+		int headerPart = Math.min(in.remaining(), FluidQOIHeader.LENGTH - pending.position());
+		pending.put(in.duplicate().limit(in.position() + headerPart));
+		in.position(in.position() + headerPart);
+
+		if (pending.position() < FluidQOIHeader.LENGTH) {
+			return false;
+		}
+
+		pending.flip();
+		header = FluidQOIHeader.read(pending);
+		pending.clear();
+
+		FluidQOIFormat format = header.getFormat();
+		int            length = header.getWidth() * header.getHeight();
+		decoder = decoders.computeIfAbsent(format, FluidQOIRawDecoder::makeDecoder);
+
+		if (decoder instanceof FluidQOIPackedShortDecoder) {
+			if (shorts == null || shorts.length != length) {
+				shorts = new short[length];
+			}
+
+			rowLength = header.getWidth();
+		} else {
+			length *= format.getBytesPerPixel();
+			if (bytes == null || bytes.length != length) {
+				bytes = new byte[length];
+			}
+
+			rowLength = header.getWidth() * format.getBytesPerPixel();
+		}
+
+		decoder.setOpLayout(header.getOpLayout());
+		decoder.beginIncremental(null, null, header.getIndexLength());
+		decodedLength = 0;
+		completedRows = rowLength == 0 ? header.getHeight() : 0;
+		ended = false;
+		return true;
+	}
+
+	private void decodeMore(ByteBuffer in) {
+		decoder.setInput(in);
+		int length;
+		if (decoder instanceof FluidQOIPackedShortDecoder) {
+			FluidQOIPackedShortDecoder shortDecoder = (FluidQOIPackedShortDecoder)decoder;
+			decodedLength += shortDecoder.decodeMore(shorts, decodedLength, shorts.length - decodedLength);
+			length = shorts.length;
+		} else {
+			FluidQOIInterleavedByteDecoder byteDecoder = (FluidQOIInterleavedByteDecoder)decoder;
+			decodedLength += byteDecoder.decodeMore(bytes, decodedLength, bytes.length - decodedLength);
+			length = bytes.length;
+		}
+
+		if (rowLength > 0) {
+			completedRows = decodedLength / rowLength;
+		}
+
+		ended = decodedLength == length && decoder.hasEnd();
+	}
+
+	/**
+	 * @return The header, or {@code null} when it hasn't been received completely.
+	 */
+	public FluidQOIHeader getHeader() {
+		return header;
+	}
+
+	public int getCompletedRows() {
+		return completedRows;
+	}
+
+	/**
+	 * @return Whether all rows and the end of the image have been received.
+	 */
+	public boolean isComplete() {
+		return ended;
+	}
+
+	/**
+	 * Converts complete rows to non-premultiplied {@code 0xAARRGGBB}, like {@code BufferedImage.setRGB()} expects.
+	 *
+	 * @param firstRow The first row to convert
+	 * @param endRow   The row after the last row to convert, at most {@link #getCompletedRows()}
+	 */
+	public void getRows(int firstRow, int endRow, int[] pixels, int offset, int stride) {
+		Objects.requireNonNull(pixels, "pixels");
+		if (header == null) {
+			throw new IllegalStateException("The header hasn't been received yet");
+		}
+
+		Objects.checkFromToIndex(firstRow, endRow, completedRows);
+		int width = header.getWidth();
+		FluidQOIRawEncoder.checkBounds(pixels.length, offset, width, endRow - firstRow, stride, 1);
+
+		int[] row = new int[width];
+		int   p   = firstRow * rowLength;
+		for (int y = firstRow; y < endRow; y++) {
+			p = FluidQOIRawDecoder.readRow(header.getFormat(), bytes, shorts, p, row);
+			System.arraycopy(row, 0, pixels, offset + (y - firstRow) * stride, width);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.digitalmodular.fluidqoi;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.digitalmodular.fluidqoi.core.FluidQOIEncoder;
+
+/**
+ * Chooses the indexLength for {@link FluidQOIConfig#AUTO_INDEX_LENGTH}. Every candidate encodes the same strips of
+ * rows, spread evenly over the image, into a channel that only counts the bytes. The candidates encode each strip in
+ * parallel on the common fork-join pool, and they stay in lockstep, so when the time budget runs out, all of them
+ * have encoded the same pixels and their lengths can be compared. The shortest one wins.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+final class FluidQOIIndexLengthSearch {
+	/** Used when the budget is {@code 0}, or when the image is empty */
+	static final int FALLBACK_INDEX_LENGTH = 16;
+
+	private static final int[] CANDIDATES        = {1, 2, 4, 8, 12, 16, 24, 32, 48, 64, 96};
+	private static final int   STRIP_HEIGHT      = 8;
+	/** Larger images are sampled, because the best indexLength barely depends on the size of the image */
+	private static final int   MAX_SAMPLE_PIXELS = 1 << 18;
+
+	private static final WritableByteChannel DISCARD = Channels.newChannel(OutputStream.nullOutputStream());
+
+	/**
+	 * Encodes a strip of rows of the image of the caller.
+	 */
+	@FunctionalInterface
+	interface StripEncoder {
+		void encodeRows(FluidQOIEncoder encoder, int y, int height);
+	}
+
+	private FluidQOIIndexLengthSearch() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @return The config itself, or when it has {@link FluidQOIConfig#AUTO_INDEX_LENGTH}, a copy with the chosen
+	 * indexLength.
+	 */
+	static FluidQOIConfig resolve(FluidQOIConfig config, FluidQOIFormat format, int width, int height,
+	                              StripEncoder strips) {
+		if (config.getIndexLength() != FluidQOIConfig.AUTO_INDEX_LENGTH) {
+			return config;
+		}
+
+		return config.withIndexLength(chooseIndexLength(config, format, width, height, strips));
+	}
+
+	private static int chooseIndexLength(FluidQOIConfig config, FluidQOIFormat format, int width, int height,
+	                                     StripEncoder strips) {
+		long budget = TimeUnit.MILLISECONDS.toNanos(config.getAutoIndexLengthBudgetMillis());
+		if (budget == 0 || width == 0 || height == 0) {
+			return FALLBACK_INDEX_LENGTH;
+		}
+
+		long deadline = System.nanoTime() + budget;
+
+		int   maxIndexLength = FluidQOIEncoder.getMaxIndexLength(format);
+		int[] candidates     = Arrays.stream(CANDIDATES).filter(length -> length <= maxIndexLength).toArray();
+
+		int numStrips        = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+		int numSampledStrips = Math.max(1, Math.min(numStrips, MAX_SAMPLE_PIXELS / (width * STRIP_HEIGHT)));
+
+		FluidQOIEncoder[] encoders = new FluidQOIEncoder[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			encoders[i] = FluidQOIRawEncoder.makeEncoder(format, config.withIndexLength(candidates[i]));
+			encoders[i].beginEncoding(width, numSampledStrips * STRIP_HEIGHT, format, DISCARD);
+		}
+
+		for (int strip = 0; strip < numSampledStrips; strip++) {
+			if (strip > 0 && System.nanoTime() - deadline > 0) {
+				break;
+			}
+
+			int y           = (int)((long)strip * numStrips / numSampledStrips) * STRIP_HEIGHT;
+			int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+			Arrays.stream(encoders).parallel().forEach(encoder -> strips.encodeRows(encoder, y, stripHeight));
+		}
+
+		int  best       = 0;
+		long bestLength = Long.MAX_VALUE;
+		for (int i = 0; i < candidates.length; i++) {
+			long length = encoders[i].getEncodedLength();
+			if (length < bestLength) {
+				best = i;
+				bestLength = length;
+			}
+		}
+
+		return candidates[best];
+	}
+}
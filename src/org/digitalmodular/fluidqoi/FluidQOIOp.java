@@ -0,0 +1,38 @@
+package org.digitalmodular.fluidqoi;
+
+/**
+ * The fixed-size ops, which can be placed in any order below the repeat ops, with {@link FluidQOIOpLayout}. The
+ * variable-length ops (index and repeat) always take the highest codes, because their number depends on the
+ * indexLength.
+ * <p>
+ * Characters in brackets show the bits of each byte of the op, where {@code ?} is part of the code.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+public enum FluidQOIOp {
+	//@formatter:off
+	/** [??DyDuDv]                                                                 */ LUMA222  (63),
+	/** [?Dy_DuDv]                                                                 */ LUMA322  (127),
+	/** [??????Dy] [__Du_Dv_]                                                      */ LUMA433  (4),
+	/** [??Dy____] [Du__Dv__]                                                      */ LUMA644  (64),
+	/** [????????] [Dr__Dg__] [Db__Da__]                                           */ LUMA4444 (1),
+	/** [?????rgb] 3 bit channel mask, then individual channel bytes               */ MASK3    (8),
+	/** [????rgba] 4 bit channel mask, then individual channel bytes               */ MASK4    (16),
+	/** [?R____G_] [g__B____]                                                      */ RGB555   (128),
+	/** [????????] [R____G__] [g__B____]                                           */ RGB565   (1);
+	//@formatter:on
+
+	private final int codeCount;
+
+	FluidQOIOp(int codeCount) {
+		this.codeCount = codeCount;
+	}
+
+	/**
+	 * @return The number of consecutive codes that the op takes.
+	 */
+	public int getCodeCount() {
+		return codeCount;
+	}
+}
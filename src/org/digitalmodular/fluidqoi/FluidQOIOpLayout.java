@@ -0,0 +1,189 @@
+package org.digitalmodular.fluidqoi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The order of the fixed-size ops of a format in the code space, from code 0 up to the repeat ops. The variable-length
+ * ops (index and repeat) always take the codes above them, split by the indexLength.
+ * <p>
+ * Every op takes the same number of codes and bytes in every layout, so the layout doesn't change the length of the
+ * stream, and the decoders of this library look up the op of every code in a table, so it doesn't change their speed
+ * either. It's for decoders that compare the code against the start of every op in turn, which are fastest when the
+ * most frequent ops come first (see the README). The best order depends on the class of images, and it's set with
+ * {@link FluidQOIConfig#setOpLayout(FluidQOIOpLayout)}.
+ * <p>
+ * Every layout of a format is one of the permutations of its ops, which is stored in the header as a single code.
+ * Code 0 is the {@linkplain #getDefault(FluidQOIFormat) default layout}, which was the only layout before layouts
+ * were stored, so older streams decode unchanged. Streams with other layouts start with
+ * {@link FluidQOIHeader#MAGIC_V2}, which older decoders reject.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+public final class FluidQOIOpLayout {
+	/** All layouts of every format, indexed by their code */
+	private static final Map<FluidQOIFormat, FluidQOIOpLayout[]> LAYOUTS = makeLayouts();
+
+	private final FluidQOIFormat format;
+	private final FluidQOIOp[]   ops;
+	private final int            code;
+	/** The first code of every op, indexed by ordinal, or -1 when the format doesn't have the op */
+	private final int[]          starts = new int[FluidQOIOp.values().length];
+
+	private FluidQOIOpLayout(FluidQOIFormat format, FluidQOIOp[] ops, int code) {
+		this.format = format;
+		this.ops = ops;
+		this.code = code;
+
+		Arrays.fill(starts, -1);
+		int start = 0;
+		for (FluidQOIOp op : ops) {
+			starts[op.ordinal()] = start;
+			start += op.getCodeCount();
+		}
+	}
+
+	private static Map<FluidQOIFormat, FluidQOIOpLayout[]> makeLayouts() {
+		Map<FluidQOIFormat, FluidQOIOpLayout[]> layouts = new EnumMap<>(FluidQOIFormat.class);
+
+		for (FluidQOIFormat format : FluidQOIFormat.values()) {
+			List<FluidQOIOp[]> permutations = new ArrayList<>(24);
+			addPermutations(getDefaultOps(format), 0, permutations);
+
+			FluidQOIOpLayout[] formatLayouts = new FluidQOIOpLayout[permutations.size()];
+			for (int code = 0; code < formatLayouts.length; code++) {
+				formatLayouts[code] = new FluidQOIOpLayout(format, permutations.get(code), code);
+			}
+
+			layouts.put(format, formatLayouts);
+		}
+
+		return layouts;
+	}
+
+	/**
+	 * @return The ops of the format, in the order of the default layout.
+	 */
+	private static FluidQOIOp[] getDefaultOps(FluidQOIFormat format) {
+		switch (format.getEncoder()) {
+			case 3:
+				return new FluidQOIOp[]{FluidQOIOp.LUMA644, FluidQOIOp.LUMA222, FluidQOIOp.MASK3};
+			case 4:
+				return new FluidQOIOp[]{FluidQOIOp.LUMA644, FluidQOIOp.LUMA222, FluidQOIOp.MASK4, FluidQOIOp.LUMA4444};
+			case 5:
+				return new FluidQOIOp[]{FluidQOIOp.RGB555, FluidQOIOp.LUMA222};
+			case 6:
+				return new FluidQOIOp[]{FluidQOIOp.LUMA433, FluidQOIOp.LUMA322, FluidQOIOp.RGB565};
+			default:
+				throw new AssertionError("Unimplemented encoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+	}
+
+	/**
+	 * Adds the permutations of the ops after {@code fixed} in lexicographic order of their position in the default
+	 * layout, so the first permutation is the default layout itself.
+	 */
+	private static void addPermutations(FluidQOIOp[] ops, int fixed, List<FluidQOIOp[]> permutations) {
+		if (fixed == ops.length) {
+			permutations.add(ops.clone());
+			return;
+		}
+
+		FluidQOIOp[] rotated = ops.clone();
+		for (int i = fixed; i < ops.length; i++) {
+			// Move op i to the front of the unfixed ops, keeping the others in order
+			System.arraycopy(ops, fixed, rotated, fixed + 1, i - fixed);
+			rotated[fixed] = ops[i];
+			System.arraycopy(ops, i + 1, rotated, i + 1, ops.length - i - 1);
+			addPermutations(rotated, fixed + 1, permutations);
+		}
+	}
+
+	public static FluidQOIOpLayout getDefault(FluidQOIFormat format) {
+		return LAYOUTS.get(Objects.requireNonNull(format, "format"))[0];
+	}
+
+	/**
+	 * @param ops Every op of the format exactly once, from code 0 upward
+	 * @throws IllegalArgumentException When the ops are not a permutation of the ops of the format.
+	 */
+	public static FluidQOIOpLayout of(FluidQOIFormat format, FluidQOIOp... ops) {
+		Objects.requireNonNull(format, "format");
+		Objects.requireNonNull(ops, "ops");
+
+		for (FluidQOIOpLayout layout : LAYOUTS.get(format)) {
+			if (Arrays.equals(layout.ops, ops)) {
+				return layout;
+			}
+		}
+
+		throw new IllegalArgumentException("Not a layout of the ops of " + format + " (" +
+		                                   getDefault(format).getOps() + "): " + Arrays.toString(ops));
+	}
+
+	/**
+	 * @return The layout with the code, as stored in the header, or {@code null} when the format has no such layout.
+	 */
+	public static FluidQOIOpLayout fromCode(FluidQOIFormat format, int code) {
+		FluidQOIOpLayout[] layouts = LAYOUTS.get(Objects.requireNonNull(format, "format"));
+		return code >= 0 && code < layouts.length ? layouts[code] : null;
+	}
+
+	public FluidQOIFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The ops, from code 0 upward.
+	 */
+	public List<FluidQOIOp> getOps() {
+		return Collections.unmodifiableList(Arrays.asList(ops));
+	}
+
+	/**
+	 * @return The code that identifies this layout among the layouts of the format.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * @return The first code of the op.
+	 * @throws IllegalArgumentException When the format doesn't have the op.
+	 */
+	public int getStart(FluidQOIOp op) {
+		int start = starts[op.ordinal()];
+		if (start < 0) {
+			throw new IllegalArgumentException(format + " doesn't have op " + op);
+		}
+
+		return start;
+	}
+
+	/**
+	 * @param code A code below the repeat ops
+	 * @return The op that the code starts.
+	 */
+	public FluidQOIOp getOp(int code) {
+		int start = 0;
+		for (FluidQOIOp op : ops) {
+			start += op.getCodeCount();
+			if (code < start) {
+				return op;
+			}
+		}
+
+		throw new IllegalArgumentException("Code is not below the repeat ops: " + code);
+	}
+
+	@Override
+	public String toString() {
+		return format + Arrays.toString(ops);
+	}
+}
@@ -0,0 +1,137 @@
+package org.digitalmodular.fluidqoi;
+
+/**
+ * Finds the smallest format that holds all pixels exactly, in a single pass without branches.
+ * <p>
+ * A channel value fits in fewer bits when it survives truncating it and expanding it again. Java2D expands in two
+ * ways: bit replication (when drawing, and like {@link FluidQOIRawDecoder}) and rounding (in
+ * {@link java.awt.image.ColorModel#getRGB(int)}). They differ for a few values, like 198 and 197 for 5 bits, so a
+ * value only fits when both ways give it back.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+final class FluidQOIPixelAnalysis {
+	private static final int FITS_5_BITS = 0b01;
+	private static final int FITS_6_BITS = 0b10;
+
+	/** The {@code FITS_} flags of every channel value */
+	private static final byte[] FITS = makeFitsTable();
+
+	private final boolean hasAlpha;
+
+	/** The AND of all alpha values, in the highest byte */
+	private int alpha       = 0xFF000000;
+	/** The AND of the {@code FITS_} flags of red and blue of all pixels */
+	private int fitsRedBlue = FITS_5_BITS | FITS_6_BITS;
+	/** The AND of the {@code FITS_} flags of green of all pixels */
+	private int fitsGreen   = FITS_5_BITS | FITS_6_BITS;
+
+	/**
+	 * @param hasAlpha When {@code false}, the alpha byte is ignored and treated as 255.
+	 */
+	FluidQOIPixelAnalysis(boolean hasAlpha) {
+		this.hasAlpha = hasAlpha;
+	}
+
+	private static byte[] makeFitsTable() {
+		byte[] table = new byte[256];
+
+		for (int bits = 5; bits <= 6; bits++) {
+			int max = (1 << bits) - 1;
+			for (int value = 0; value <= max; value++) {
+				int replicated = value << (8 - bits) | value >> (bits * 2 - 8);
+				int rounded    = (int)(value * 255.0 / max + 0.5);
+				if (replicated == rounded) {
+					table[replicated] |= bits == 5 ? FITS_5_BITS : FITS_6_BITS;
+				}
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * @param argb Pixels packed as {@code 0xAARRGGBB}
+	 */
+	void addPixels(int[] argb, int offset, int length) {
+		int alpha       = this.alpha;
+		int fitsRedBlue = this.fitsRedBlue;
+		int fitsGreen   = this.fitsGreen;
+
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			int pixel = argb[i];
+			alpha &= pixel;
+			fitsRedBlue &= FITS[pixel >> 16 & 0xFF] & FITS[pixel & 0xFF];
+			fitsGreen &= FITS[pixel >> 8 & 0xFF];
+		}
+
+		this.alpha = alpha & 0xFF000000;
+		this.fitsRedBlue = fitsRedBlue;
+		this.fitsGreen = fitsGreen;
+	}
+
+	/**
+	 * @param bandOffsets The offsets of red, green, blue and (optionally) alpha within a pixel
+	 */
+	void addPixels(byte[] samples, int offset, int length, int pixelStride, int[] bandOffsets) {
+		int     offsetR  = bandOffsets[0];
+		int     offsetG  = bandOffsets[1];
+		int     offsetB  = bandOffsets[2];
+		boolean hasAlpha = bandOffsets.length > 3;
+		int     offsetA  = hasAlpha ? bandOffsets[3] : 0;
+
+		int alpha       = this.alpha;
+		int fitsRedBlue = this.fitsRedBlue;
+		int fitsGreen   = this.fitsGreen;
+
+		int p = offset;
+		for (int i = 0; i < length; i++) {
+			if (hasAlpha) {
+				alpha &= samples[p + offsetA] << 24;
+			}
+
+			fitsRedBlue &= FITS[samples[p + offsetR] & 0xFF] & FITS[samples[p + offsetB] & 0xFF];
+			fitsGreen &= FITS[samples[p + offsetG] & 0xFF];
+			p += pixelStride;
+		}
+
+		this.alpha = alpha & 0xFF000000;
+		this.fitsRedBlue = fitsRedBlue;
+		this.fitsGreen = fitsGreen;
+	}
+
+	/**
+	 * @return Whether any pixel is not opaque, which decides the format.
+	 */
+	boolean isTranslucent() {
+		return hasAlpha && alpha != 0xFF000000;
+	}
+
+	/**
+	 * @return Whether more pixels can't change the format anymore, so the rest of the pixels can be skipped. That's
+	 * when any pixel is not opaque, or when the pixels need RGB888 and there's no alpha that could still make them
+	 * need RGBA8888.
+	 */
+	boolean isFinal() {
+		return isTranslucent() ||
+		       !hasAlpha && ((fitsRedBlue & FITS_5_BITS) == 0 || (fitsGreen & FITS_6_BITS) == 0);
+	}
+
+	/**
+	 * @return The smallest format that holds the pixels so far exactly, in order of preference: RGBA8888 when any
+	 * pixel is not opaque, RGB555, RGB565 or RGB888.
+	 */
+	FluidQOIFormat getSmallestFormat() {
+		if (isTranslucent()) {
+			return FluidQOIFormat.RGBA8888;
+		} else if ((fitsRedBlue & fitsGreen & FITS_5_BITS) != 0) {
+			return FluidQOIFormat.RGB555;
+		} else if ((fitsRedBlue & FITS_5_BITS) != 0 && (fitsGreen & FITS_6_BITS) != 0) {
+			return FluidQOIFormat.RGB565;
+		} else {
+			return FluidQOIFormat.RGB888;
+		}
+	}
+}
@@ -0,0 +1,470 @@
+package org.digitalmodular.fluidqoi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.digitalmodular.fluidqoi.core.FluidQOI555Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI565Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI8888Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI888Decoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIInterleavedByteDecoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIPackedShortDecoder;
+
+/**
+ * Decodes into plain arrays and buffers, without depending on AWT.
+ * <p>
+ * Every decode method reads the header, decodes the image into the destination, and returns the header. The
+ * destination is described by an offset, stride (the distance from the start of one row to the next) and
+ * {@link FluidQOIChannelOrder}, like in {@link FluidQOIRawEncoder}. To allocate a destination of the right size, read
+ * the header first with {@code FluidQOIHeader.read(in.duplicate())}.
+ * <p>
+ * Images of every format can be decoded into {@code int[]}, {@code byte[]} and {@link ByteBuffer} destinations. Packed
+ * RGB565 and RGB555 pixels are expanded to 8 bits by bit replication, like Java2D does. {@code short[]} destinations
+ * only accept images that are already in the requested packed format.
+ * <p>
+ * The image is decoded one row at a time, straight into the destination when it has the native channel order of the
+ * format ({@link FluidQOIChannelOrder#BGR} for RGB888, {@link FluidQOIChannelOrder#ABGR} for RGBA8888, and the packed
+ * orders for {@code short[]}), or through a single row in other cases. Direct buffers (for example off-heap frame
+ * buffers) are always filled through a single row.
+ * <p>
+ * Every decode method also exists for a {@link ReadableByteChannel}, which decodes while reading the ops through a
+ * buffer of {@value #STREAM_BUFFER_LENGTH} bytes, so the encoded image never has to be in memory as a whole. The
+ * channel may be read past the end of the image. When the ops (or the channel) end before the end of the image, an
+ * {@link EOFException} is thrown.
+ * <p>
+ * This class is not thread-safe, because it keeps the row buffers and the decoders between calls. Reusing one instance
+ * avoids allocating them again for every image, which matters when decoding many small images.
+ *
+ * @author Mark Jeronimus
+ * @see FluidQOIImageDecoder
+ */
+// Created 2026-10-17
+public final class FluidQOIRawDecoder {
+	@SuppressWarnings({"PublicField", "StaticNonFinalField"})
+	public static boolean debugging = false;
+
+	static final int STREAM_BUFFER_LENGTH = 65536;
+
+	private final Map<FluidQOIFormat, FluidQOIDecoder> decoders = new EnumMap<>(FluidQOIFormat.class);
+
+	/** One row in the native layout of the format, for destinations with a different layout */
+	private byte[]  rowBytes  = null;
+	/** One row in the native layout of the format, for destinations with a different layout */
+	private short[] rowShorts = null;
+
+	/**
+	 * @param order One of the 4-byte channel orders
+	 */
+	public FluidQOIHeader decode(ByteBuffer in, int[] pixels, int offset, int stride, FluidQOIChannelOrder order)
+			throws IOException {
+		return decode(null, in, pixels, offset, stride, order);
+	}
+
+	/**
+	 * @param order One of the 4-byte channel orders
+	 */
+	public FluidQOIHeader decode(ReadableByteChannel in, int[] pixels, int offset, int stride,
+	                             FluidQOIChannelOrder order) throws IOException {
+		try {
+			return decode(in, beginStreaming(in), pixels, offset, stride, order);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIHeader decode(ReadableByteChannel channel, ByteBuffer in, int[] pixels, int offset, int stride,
+	                              FluidQOIChannelOrder order) throws IOException {
+		Objects.requireNonNull(pixels, "pixels");
+		Objects.requireNonNull(order, "order");
+		int[] shifts = order.getIntShifts();
+
+		FluidQOIHeader header = FluidQOIHeader.read(in);
+		int            width  = header.getWidth();
+		int            height = header.getHeight();
+		FluidQOIRawEncoder.checkBounds(pixels.length, offset, width, height, stride, 1);
+
+		FluidQOIDecoder decoder = beginDecoding(channel, in, header);
+
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			decodeRow(decoder, header.getFormat(), row);
+
+			int rowOffset = offset + y * stride;
+			for (int x = 0; x < width; x++) {
+				int argb = row[x];
+				pixels[rowOffset + x] = (argb >>> 24) << shifts[3] |
+				                        (argb >> 16 & 0xFF) << shifts[0] |
+				                        (argb >> 8 & 0xFF) << shifts[1] |
+				                        (argb & 0xFF) << shifts[2];
+			}
+		}
+
+		finishDecoding(decoder);
+		return header;
+	}
+
+	/**
+	 * @param order One of the 3-byte or 4-byte channel orders
+	 */
+	public FluidQOIHeader decode(ByteBuffer in, byte[] samples, int offset, int stride, FluidQOIChannelOrder order)
+			throws IOException {
+		return decode(null, in, samples, offset, stride, order);
+	}
+
+	/**
+	 * @param order One of the 3-byte or 4-byte channel orders
+	 */
+	public FluidQOIHeader decode(ReadableByteChannel in, byte[] samples, int offset, int stride,
+	                             FluidQOIChannelOrder order) throws IOException {
+		try {
+			return decode(in, beginStreaming(in), samples, offset, stride, order);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIHeader decode(ReadableByteChannel channel, ByteBuffer in, byte[] samples, int offset, int stride,
+	                              FluidQOIChannelOrder order) throws IOException {
+		Objects.requireNonNull(samples, "samples");
+		Objects.requireNonNull(order, "order");
+		int pixelStride = order.getBytesPerPixel();
+
+		FluidQOIHeader header = FluidQOIHeader.read(in);
+		int            width  = header.getWidth();
+		int            height = header.getHeight();
+		FluidQOIRawEncoder.checkBounds(samples.length, offset, width, height, stride, pixelStride);
+
+		FluidQOIDecoder decoder = beginDecoding(channel, in, header);
+
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			decodeRow(decoder, header.getFormat(), samples, offset + y * stride, order, row);
+		}
+
+		finishDecoding(decoder);
+		return header;
+	}
+
+	/**
+	 * Decodes into the buffer, starting at its position. The position of the buffer is not changed.
+	 *
+	 * @param order One of the 3-byte or 4-byte channel orders
+	 */
+	public FluidQOIHeader decode(ByteBuffer in, ByteBuffer samples, int stride, FluidQOIChannelOrder order)
+			throws IOException {
+		return decode(null, in, samples, stride, order);
+	}
+
+	/**
+	 * Decodes into the buffer, starting at its position. The position of the buffer is not changed.
+	 *
+	 * @param order One of the 3-byte or 4-byte channel orders
+	 */
+	public FluidQOIHeader decode(ReadableByteChannel in, ByteBuffer samples, int stride, FluidQOIChannelOrder order)
+			throws IOException {
+		try {
+			return decode(in, beginStreaming(in), samples, stride, order);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIHeader decode(ReadableByteChannel channel, ByteBuffer in, ByteBuffer samples, int stride,
+	                              FluidQOIChannelOrder order) throws IOException {
+		Objects.requireNonNull(samples, "samples");
+		Objects.requireNonNull(order, "order");
+		int pixelStride = order.getBytesPerPixel();
+
+		FluidQOIHeader header = FluidQOIHeader.read(in);
+		int            width  = header.getWidth();
+		int            height = header.getHeight();
+		FluidQOIRawEncoder.checkBounds(samples.remaining(), 0, width, height, stride, pixelStride);
+
+		FluidQOIDecoder decoder = beginDecoding(channel, in, header);
+
+		int[] row = new int[width];
+		if (samples.hasArray()) {
+			byte[] array  = samples.array();
+			int    offset = samples.arrayOffset() + samples.position();
+			for (int y = 0; y < height; y++) {
+				decodeRow(decoder, header.getFormat(), array, offset + y * stride, order, row);
+			}
+		} else {
+			// Direct buffers are filled one row at a time, through a row that stays in the cache.
+			byte[]     rowSamples = new byte[width * pixelStride];
+			ByteBuffer dst        = samples.duplicate();
+			for (int y = 0; y < height; y++) {
+				decodeRow(decoder, header.getFormat(), rowSamples, 0, order, row);
+
+				dst.position(samples.position() + y * stride);
+				dst.put(rowSamples);
+			}
+		}
+
+		finishDecoding(decoder);
+		return header;
+	}
+
+	/**
+	 * @param order {@link FluidQOIChannelOrder#RGB565} or {@link FluidQOIChannelOrder#RGB555}, which has to match the
+	 *              format of the image
+	 */
+	public FluidQOIHeader decode(ByteBuffer in, short[] pixels, int offset, int stride, FluidQOIChannelOrder order)
+			throws IOException {
+		return decode(null, in, pixels, offset, stride, order);
+	}
+
+	/**
+	 * @param order {@link FluidQOIChannelOrder#RGB565} or {@link FluidQOIChannelOrder#RGB555}, which has to match the
+	 *              format of the image
+	 */
+	public FluidQOIHeader decode(ReadableByteChannel in, short[] pixels, int offset, int stride,
+	                             FluidQOIChannelOrder order) throws IOException {
+		try {
+			return decode(in, beginStreaming(in), pixels, offset, stride, order);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIHeader decode(ReadableByteChannel channel, ByteBuffer in, short[] pixels, int offset, int stride,
+	                              FluidQOIChannelOrder order) throws IOException {
+		Objects.requireNonNull(pixels, "pixels");
+		Objects.requireNonNull(order, "order");
+		if (!order.isPacked()) {
+			throw new IllegalArgumentException("Channel order can't be used for short pixels: " + order);
+		}
+
+		FluidQOIHeader header = FluidQOIHeader.read(in);
+		int            width  = header.getWidth();
+		int            height = header.getHeight();
+		if (header.getFormat().getNativeChannelOrder() != order) {
+			throw new IllegalArgumentException("Image format " + header.getFormat() +
+			                                   " can't be decoded as " + order);
+		}
+		FluidQOIRawEncoder.checkBounds(pixels.length, offset, width, height, stride, 1);
+
+		// Decode straight into the destination
+		FluidQOIPackedShortDecoder decoder = (FluidQOIPackedShortDecoder)beginDecoding(channel, in, header);
+		for (int y = 0; y < height; y++) {
+			checkComplete(decoder.decodeMore(pixels, offset + y * stride, width), width);
+		}
+
+		finishDecoding(decoder);
+		return header;
+	}
+
+	private static void writeRow(int[] row, byte[] samples, int offset, int pixelStride, int[] bandOffsets) {
+		int     offsetR  = bandOffsets[0];
+		int     offsetG  = bandOffsets[1];
+		int     offsetB  = bandOffsets[2];
+		boolean hasAlpha = bandOffsets.length > 3;
+		int     offsetA  = hasAlpha ? bandOffsets[3] : 0;
+
+		int q = offset;
+		for (int argb : row) {
+			samples[q + offsetR] = (byte)(argb >> 16);
+			samples[q + offsetG] = (byte)(argb >> 8);
+			samples[q + offsetB] = (byte)argb;
+			if (hasAlpha) {
+				samples[q + offsetA] = (byte)(argb >>> 24);
+			}
+
+			q += pixelStride;
+		}
+	}
+
+	/**
+	 * Prepares the decoder of the format. It then decodes one row at a time, so there's no copy of the whole image.
+	 */
+	private FluidQOIDecoder beginDecoding(ReadableByteChannel channel, ByteBuffer in, FluidQOIHeader header) {
+		FluidQOIDecoder decoder = decoders.computeIfAbsent(header.getFormat(), FluidQOIRawDecoder::makeDecoder);
+		decoder.setOpLayout(header.getOpLayout());
+		decoder.beginIncremental(channel, in, header.getIndexLength());
+
+		int length = header.getWidth();
+		if (decoder instanceof FluidQOIPackedShortDecoder) {
+			if (rowShorts == null || rowShorts.length != length) {
+				rowShorts = new short[length];
+			}
+		} else {
+			length *= header.getFormat().getBytesPerPixel();
+			if (rowBytes == null || rowBytes.length != length) {
+				rowBytes = new byte[length];
+			}
+		}
+
+		return decoder;
+	}
+
+	/**
+	 * Decodes the next row into the samples, directly when they have the native channel order of the format.
+	 *
+	 * @param row Scratch space for the conversion
+	 */
+	private void decodeRow(FluidQOIDecoder decoder, FluidQOIFormat format,
+	                       byte[] samples, int offset, FluidQOIChannelOrder order, int[] row) throws EOFException {
+		int pixelStride = order.getBytesPerPixel();
+		if (order == format.getNativeChannelOrder()) {
+			int length = row.length * pixelStride;
+			checkComplete(((FluidQOIInterleavedByteDecoder)decoder).decodeMore(samples, offset, length), length);
+		} else {
+			decodeRow(decoder, format, row);
+			writeRow(row, samples, offset, pixelStride, order.getBandOffsets());
+		}
+	}
+
+	/**
+	 * Decodes the next row, and converts it to non-premultiplied {@code 0xAARRGGBB}.
+	 */
+	private void decodeRow(FluidQOIDecoder decoder, FluidQOIFormat format, int[] row) throws EOFException {
+		if (decoder instanceof FluidQOIPackedShortDecoder) {
+			int length = rowShorts.length;
+			checkComplete(((FluidQOIPackedShortDecoder)decoder).decodeMore(rowShorts, 0, length), length);
+		} else {
+			int length = rowBytes.length;
+			checkComplete(((FluidQOIInterleavedByteDecoder)decoder).decodeMore(rowBytes, 0, length), length);
+		}
+
+		readRow(format, rowBytes, rowShorts, 0, row);
+	}
+
+	/**
+	 * @param decoded  The number of array elements that the decoder wrote
+	 * @param expected The number of array elements that were requested
+	 * @throws EOFException When the ops (or the channel) ended before all pixels were decoded.
+	 */
+	private static void checkComplete(int decoded, int expected) throws EOFException {
+		if (decoded != expected) {
+			throw new EOFException("Truncated image: the ops end " + (expected - decoded) +
+			                       " array elements before the end of the range");
+		}
+	}
+
+	/**
+	 * @throws EOFException When the ops (or the channel) end before the end of the image.
+	 */
+	private static void finishDecoding(FluidQOIDecoder decoder) throws EOFException {
+		if (!decoder.hasEnd()) {
+			throw new EOFException("Truncated image: the end of the image is missing");
+		}
+
+		decoder.finishIncremental();
+	}
+
+	/**
+	 * Converts one row of decoded samples to non-premultiplied {@code 0xAARRGGBB}.
+	 *
+	 * @param bytes  The samples of the 888 and 8888 formats, in the native channel order of the format
+	 * @param shorts The pixels of the 555 and 565 formats
+	 * @return The index in the samples of the next row.
+	 */
+	static int readRow(FluidQOIFormat format, byte[] bytes, short[] shorts, int p, int[] row) {
+		switch (format) {
+			case RGB888:
+				for (int x = 0; x < row.length; x++) {
+					row[x] = 0xFF000000 |
+					         (bytes[p + 2] & 0xFF) << 16 |
+					         (bytes[p + 1] & 0xFF) << 8 |
+					         bytes[p] & 0xFF;
+					p += 3;
+				}
+				return p;
+			case RGBA8888:
+				for (int x = 0; x < row.length; x++) {
+					row[x] = (bytes[p] & 0xFF) << 24 |
+					         (bytes[p + 3] & 0xFF) << 16 |
+					         (bytes[p + 2] & 0xFF) << 8 |
+					         bytes[p + 1] & 0xFF;
+					p += 4;
+				}
+				return p;
+			case RGB555:
+				for (int x = 0; x < row.length; x++) {
+					int rgb = shorts[p++];
+					int r   = rgb >> 10 & 0b11111;
+					int g   = rgb >> 5 & 0b11111;
+					int b   = rgb & 0b11111;
+					row[x] = 0xFF000000 | (r << 3 | r >> 2) << 16 | (g << 3 | g >> 2) << 8 | b << 3 | b >> 2;
+				}
+				return p;
+			case RGB565:
+				for (int x = 0; x < row.length; x++) {
+					int rgb = shorts[p++];
+					int r   = rgb >> 11 & 0b11111;
+					int g   = rgb >> 5 & 0b111111;
+					int b   = rgb & 0b11111;
+					row[x] = 0xFF000000 | (r << 3 | r >> 2) << 16 | (g << 2 | g >> 4) << 8 | b << 3 | b >> 2;
+				}
+				return p;
+			default:
+				throw new AssertionError("Unimplemented format: " + format);
+		}
+	}
+
+	/**
+	 * Reads at least the header from the channel, into a new buffer that is ready to be read.
+	 */
+	static ByteBuffer beginStreaming(ReadableByteChannel channel) throws IOException {
+		Objects.requireNonNull(channel, "channel");
+
+		ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_LENGTH);
+		while (buffer.position() < FluidQOIHeader.LENGTH) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Truncated header: " + buffer.position() + " bytes");
+			}
+		}
+
+		return buffer.flip();
+	}
+
+	/**
+	 * Decodes the ops following the header into interleaved bytes, in the native channel order of the format.
+	 *
+	 * @param channel Refills {@code in} while decoding, or {@code null} when {@code in} holds all ops
+	 */
+	static void decodePixels(ReadableByteChannel channel, ByteBuffer in, FluidQOIHeader header, byte[] pixels)
+			throws EOFException {
+		FluidQOIInterleavedByteDecoder decoder = (FluidQOIInterleavedByteDecoder)makeDecoder(header.getFormat());
+		decoder.setOpLayout(header.getOpLayout());
+		decoder.beginIncremental(channel, in, header.getIndexLength());
+		checkComplete(decoder.decodeMore(pixels, 0, pixels.length), pixels.length);
+		finishDecoding(decoder);
+	}
+
+	/**
+	 * Decodes the ops following the header into packed shorts, in the native channel order of the format.
+	 *
+	 * @param channel Refills {@code in} while decoding, or {@code null} when {@code in} holds all ops
+	 */
+	static void decodePixels(ReadableByteChannel channel, ByteBuffer in, FluidQOIHeader header, short[] pixels)
+			throws EOFException {
+		FluidQOIPackedShortDecoder decoder = (FluidQOIPackedShortDecoder)makeDecoder(header.getFormat());
+		decoder.setOpLayout(header.getOpLayout());
+		decoder.beginIncremental(channel, in, header.getIndexLength());
+		checkComplete(decoder.decodeMore(pixels, 0, pixels.length), pixels.length);
+		finishDecoding(decoder);
+	}
+
+	static FluidQOIDecoder makeDecoder(FluidQOIFormat format) {
+		switch (format.getEncoder()) {
+			case 3:
+				return new FluidQOI888Decoder();
+			case 4:
+				return new FluidQOI8888Decoder();
+			case 5:
+				return new FluidQOI555Decoder();
+			case 6:
+				return new FluidQOI565Decoder();
+			default:
+				throw new AssertionError("Unimplemented decoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package org.digitalmodular.fluidqoi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.digitalmodular.fluidqoi.FluidQOIIndexLengthSearch.StripEncoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI555Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI565Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI8888Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOI888Encoder;
+import org.digitalmodular.fluidqoi.core.FluidQOIEncoder;
+
+/**
+ * Encodes pixels from plain arrays and buffers, without depending on AWT.
+ * <p>
+ * The pixels are described by a width, height, stride (the distance from the start of one row to the next) and
+ * {@link FluidQOIChannelOrder}. The stride is counted in array elements, so for {@code int[]} and {@code short[]} it
+ * is in pixels and for {@code byte[]} and {@link ByteBuffer} it is in bytes.
+ * <p>
+ * Unless the config overrides it, the format is the smallest one that can hold the channel order: RGBA8888 when it
+ * has alpha, RGB565 or RGB555 for the packed orders, and RGB888 otherwise.
+ * <p>
+ * Every encode method has three variants. One returns a new heap buffer, which grows while encoding, starting at half
+ * the size of the raw pixels. One encodes into the buffer of the caller (wrap a {@code byte[]} with
+ * {@link ByteBuffer#wrap(byte[])}), and throws {@link BufferOverflowException} when it's too small.
+ * {@link #getMaxEncodedLength(int, int, FluidQOIChannelOrder)} is large enough for every image. The last one streams
+ * the encoded image to a blocking channel (wrap an {@link java.io.OutputStream} with
+ * {@link java.nio.channels.Channels#newChannel(java.io.OutputStream)}) through a small block buffer, so the memory use
+ * doesn't depend on the size of the image, and the first bytes are written before the image is encoded.
+ *
+ * @author Mark Jeronimus
+ * @see FluidQOIImageEncoder
+ */
+// Created 2026-10-17
+public final class FluidQOIRawEncoder {
+	@SuppressWarnings({"PublicField", "StaticNonFinalField"})
+	public static boolean debugging = false;
+
+	private static final int[] MASKS_565       = {0b11111000_00000000, 0b00000111_11100000, 0b00000000_00011111};
+	private static final int[] MASKS_555       = {0b01111100_00000000, 0b00000011_11100000, 0b00000000_00011111};
+	private static final int[] BIT_OFFSETS_565 = {11, 5, 0};
+	private static final int[] BIT_OFFSETS_555 = {10, 5, 0};
+
+	private final FluidQOIConfig config;
+
+	public FluidQOIRawEncoder(FluidQOIConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * @param order One of the 4-byte channel orders, where alpha is always present
+	 * @return A ByteBuffer containing exactly the encoded image, backed by a heap array, ready to be read.
+	 */
+	public ByteBuffer encode(int[] pixels, int offset, int width, int height, int stride,
+	                         FluidQOIChannelOrder order) {
+		return encodeImpl(pixels, offset, width, height, stride, order, null).finishEncoding();
+	}
+
+	/**
+	 * @param order       One of the 4-byte channel orders, where alpha is always present
+	 * @param destination Receives the encoded image, starting at its position, which is moved past the encoded image
+	 * @return The length of the encoded image.
+	 * @throws BufferOverflowException when the encoded image doesn't fit
+	 */
+	public int encode(int[] pixels, int offset, int width, int height, int stride, FluidQOIChannelOrder order,
+	                  ByteBuffer destination) {
+		Objects.requireNonNull(destination, "destination");
+		return encodeImpl(pixels, offset, width, height, stride, order, destination).finishEncoding().remaining();
+	}
+
+	/**
+	 * @param order   One of the 4-byte channel orders, where alpha is always present
+	 * @param channel Receives the encoded image. It's not closed.
+	 * @return The length of the encoded image.
+	 */
+	public long encode(int[] pixels, int offset, int width, int height, int stride, FluidQOIChannelOrder order,
+	                   WritableByteChannel channel) throws IOException {
+		Objects.requireNonNull(channel, "channel");
+		try {
+			return encodeImpl(pixels, offset, width, height, stride, order, channel).finishStreaming();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIEncoder encodeImpl(int[] pixels, int offset, int width, int height, int stride,
+	                                   FluidQOIChannelOrder order, Object destination) {
+		Objects.requireNonNull(pixels, "pixels");
+		Objects.requireNonNull(order, "order");
+		if (order.getBytesPerPixel() != 4) {
+			throw new IllegalArgumentException("Channel order can't be used for int pixels: " + order);
+		}
+		checkBounds(pixels.length, offset, width, height, stride, 1);
+
+		return encodeStrips(width, height, order, destination, (encoder, y, stripHeight) ->
+				encodeIntPixels(encoder, pixels, offset + y * stride, width, stripHeight, stride, order, true));
+	}
+
+	/**
+	 * @param order One of the 3-byte or 4-byte channel orders
+	 * @return A ByteBuffer containing exactly the encoded image, backed by a heap array, ready to be read.
+	 */
+	public ByteBuffer encode(byte[] samples, int offset, int width, int height, int stride,
+	                         FluidQOIChannelOrder order) {
+		return encodeImpl(samples, offset, width, height, stride, order, null).finishEncoding();
+	}
+
+	/**
+	 * @param order       One of the 3-byte or 4-byte channel orders
+	 * @param destination Receives the encoded image, starting at its position, which is moved past the encoded image
+	 * @return The length of the encoded image.
+	 * @throws BufferOverflowException when the encoded image doesn't fit
+	 */
+	public int encode(byte[] samples, int offset, int width, int height, int stride, FluidQOIChannelOrder order,
+	                  ByteBuffer destination) {
+		Objects.requireNonNull(destination, "destination");
+		return encodeImpl(samples, offset, width, height, stride, order, destination).finishEncoding().remaining();
+	}
+
+	/**
+	 * @param order   One of the 3-byte or 4-byte channel orders
+	 * @param channel Receives the encoded image. It's not closed.
+	 * @return The length of the encoded image.
+	 */
+	public long encode(byte[] samples, int offset, int width, int height, int stride, FluidQOIChannelOrder order,
+	                   WritableByteChannel channel) throws IOException {
+		Objects.requireNonNull(channel, "channel");
+		try {
+			return encodeImpl(samples, offset, width, height, stride, order, channel).finishStreaming();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIEncoder encodeImpl(byte[] samples, int offset, int width, int height, int stride,
+	                                   FluidQOIChannelOrder order, Object destination) {
+		Objects.requireNonNull(samples, "samples");
+		Objects.requireNonNull(order, "order");
+		int[] bandOffsets = order.getBandOffsets();
+		int   pixelStride = order.getBytesPerPixel();
+		checkBounds(samples.length, offset, width, height, stride, pixelStride);
+
+		return encodeStrips(width, height, order, destination, (encoder, y, stripHeight) ->
+				encodeBytePixels(encoder, samples, offset + y * stride, width, stripHeight, stride, pixelStride,
+				                 bandOffsets));
+	}
+
+	/**
+	 * Encodes the pixels starting at the position of the buffer. The position of the buffer is not changed.
+	 *
+	 * @param order One of the 3-byte or 4-byte channel orders
+	 * @return A ByteBuffer containing exactly the encoded image, backed by a heap array, ready to be read.
+	 */
+	public ByteBuffer encode(ByteBuffer samples, int width, int height, int stride, FluidQOIChannelOrder order) {
+		return encodeImpl(samples, width, height, stride, order, null).finishEncoding();
+	}
+
+	/**
+	 * Encodes the pixels starting at the position of the buffer. The position of the buffer is not changed.
+	 *
+	 * @param order       One of the 3-byte or 4-byte channel orders
+	 * @param destination Receives the encoded image, starting at its position, which is moved past the encoded image
+	 * @return The length of the encoded image.
+	 * @throws BufferOverflowException when the encoded image doesn't fit
+	 */
+	public int encode(ByteBuffer samples, int width, int height, int stride, FluidQOIChannelOrder order,
+	                  ByteBuffer destination) {
+		Objects.requireNonNull(destination, "destination");
+		return encodeImpl(samples, width, height, stride, order, destination).finishEncoding().remaining();
+	}
+
+	/**
+	 * Encodes the pixels starting at the position of the buffer. The position of the buffer is not changed.
+	 *
+	 * @param order   One of the 3-byte or 4-byte channel orders
+	 * @param channel Receives the encoded image. It's not closed.
+	 * @return The length of the encoded image.
+	 */
+	public long encode(ByteBuffer samples, int width, int height, int stride, FluidQOIChannelOrder order,
+	                   WritableByteChannel channel) throws IOException {
+		Objects.requireNonNull(channel, "channel");
+		try {
+			return encodeImpl(samples, width, height, stride, order, channel).finishStreaming();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIEncoder encodeImpl(ByteBuffer samples, int width, int height, int stride,
+	                                   FluidQOIChannelOrder order, Object destination) {
+		Objects.requireNonNull(samples, "samples");
+		Objects.requireNonNull(order, "order");
+		int[] bandOffsets = order.getBandOffsets();
+		int   pixelStride = order.getBytesPerPixel();
+		checkBounds(samples.remaining(), 0, width, height, stride, pixelStride);
+
+		if (samples.hasArray()) {
+			byte[] array  = samples.array();
+			int    offset = samples.arrayOffset() + samples.position();
+			return encodeStrips(width, height, order, destination, (encoder, y, stripHeight) ->
+					encodeBytePixels(encoder, array, offset + y * stride, width, stripHeight, stride, pixelStride,
+					                 bandOffsets));
+		}
+
+		// Direct (or read-only) buffers are copied one row at a time.
+		return encodeStrips(width, height, order, destination, (encoder, y, stripHeight) -> {
+			ByteBuffer src = samples.duplicate();
+			byte[]     row = new byte[width * pixelStride];
+			for (int i = y; i < y + stripHeight; i++) {
+				src.position(samples.position() + i * stride);
+				src.get(row);
+				encoder.encodePixels(row, 0, width, pixelStride, bandOffsets);
+			}
+		});
+	}
+
+	/**
+	 * @param order {@link FluidQOIChannelOrder#RGB565} or {@link FluidQOIChannelOrder#RGB555}
+	 * @return A ByteBuffer containing exactly the encoded image, backed by a heap array, ready to be read.
+	 */
+	public ByteBuffer encode(short[] pixels, int offset, int width, int height, int stride,
+	                         FluidQOIChannelOrder order) {
+		return encodeImpl(pixels, offset, width, height, stride, order, null).finishEncoding();
+	}
+
+	/**
+	 * @param order       {@link FluidQOIChannelOrder#RGB565} or {@link FluidQOIChannelOrder#RGB555}
+	 * @param destination Receives the encoded image, starting at its position, which is moved past the encoded image
+	 * @return The length of the encoded image.
+	 * @throws BufferOverflowException when the encoded image doesn't fit
+	 */
+	public int encode(short[] pixels, int offset, int width, int height, int stride, FluidQOIChannelOrder order,
+	                  ByteBuffer destination) {
+		Objects.requireNonNull(destination, "destination");
+		return encodeImpl(pixels, offset, width, height, stride, order, destination).finishEncoding().remaining();
+	}
+
+	/**
+	 * @param order   {@link FluidQOIChannelOrder#RGB565} or {@link FluidQOIChannelOrder#RGB555}
+	 * @param channel Receives the encoded image. It's not closed.
+	 * @return The length of the encoded image.
+	 */
+	public long encode(short[] pixels, int offset, int width, int height, int stride, FluidQOIChannelOrder order,
+	                   WritableByteChannel channel) throws IOException {
+		Objects.requireNonNull(channel, "channel");
+		try {
+			return encodeImpl(pixels, offset, width, height, stride, order, channel).finishStreaming();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private FluidQOIEncoder encodeImpl(short[] pixels, int offset, int width, int height, int stride,
+	                                   FluidQOIChannelOrder order, Object destination) {
+		Objects.requireNonNull(pixels, "pixels");
+		Objects.requireNonNull(order, "order");
+		if (!order.isPacked()) {
+			throw new IllegalArgumentException("Channel order can't be used for short pixels: " + order);
+		}
+		checkBounds(pixels.length, offset, width, height, stride, 1);
+
+		boolean is565      = order == FluidQOIChannelOrder.RGB565;
+		int[]   masks      = is565 ? MASKS_565 : MASKS_555;
+		int[]   bitOffsets = is565 ? BIT_OFFSETS_565 : BIT_OFFSETS_555;
+
+		return encodeStrips(width, height, order, destination, (encoder, y, stripHeight) ->
+				encodeShortPixels(encoder, pixels, offset + y * stride, width, stripHeight, stride, masks, bitOffsets));
+	}
+
+	/**
+	 * @return The largest possible length of an image with this size and channel order, encoded with this config.
+	 */
+	public long getMaxEncodedLength(int width, int height, FluidQOIChannelOrder order) {
+		return FluidQOIEncoder.getMaxEncodedLength(width, height, determineFormat(order));
+	}
+
+	/**
+	 * Encodes all rows of the image, after choosing the indexLength when the config asks for it.
+	 *
+	 * @param destination A {@link ByteBuffer} or {@link WritableByteChannel} of the caller, or {@code null} to encode
+	 *                    into a new, growing, buffer
+	 * @param strips      Encodes the rows of the image, also while trial-encoding
+	 */
+	private FluidQOIEncoder encodeStrips(int width, int height, FluidQOIChannelOrder order, Object destination,
+	                                     StripEncoder strips) {
+		FluidQOIFormat  format  = determineFormat(order);
+		FluidQOIConfig  config  = FluidQOIIndexLengthSearch.resolve(this.config, format, width, height, strips);
+		FluidQOIEncoder encoder = makeEncoder(format, config);
+
+		if (destination == null) {
+			encoder.beginEncoding(width, height, format);
+		} else if (destination instanceof ByteBuffer) {
+			encoder.beginEncoding(width, height, format, (ByteBuffer)destination);
+		} else {
+			encoder.beginEncoding(width, height, format, (WritableByteChannel)destination);
+		}
+
+		strips.encodeRows(encoder, 0, height);
+		return encoder;
+	}
+
+	private FluidQOIFormat determineFormat(FluidQOIChannelOrder order) {
+		if (config.getFormatOverride() != null) {
+			return config.getFormatOverride();
+		}
+
+		switch (order) {
+			case RGB565:
+				return FluidQOIFormat.RGB565;
+			case RGB555:
+				return FluidQOIFormat.RGB555;
+			default:
+				return order.hasAlpha() ? FluidQOIFormat.RGBA8888 : FluidQOIFormat.RGB888;
+		}
+	}
+
+	static FluidQOIEncoder makeEncoder(FluidQOIFormat format, FluidQOIConfig config) {
+		switch (format.getEncoder()) {
+			case 3:
+				return new FluidQOI888Encoder(config);
+			case 4:
+				return new FluidQOI8888Encoder(config);
+			case 5:
+				return new FluidQOI555Encoder(config);
+			case 6:
+				return new FluidQOI565Encoder(config);
+			default:
+				throw new AssertionError("Unimplemented encoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+	}
+
+	/**
+	 * @param elementsPerPixel The number of array elements of one pixel
+	 */
+	static void checkBounds(int length, int offset, int width, int height, int stride, int elementsPerPixel) {
+		if (width < 0 || width > FluidQOIHeader.MAX_DIMENSION ||
+		    height < 0 || height > FluidQOIHeader.MAX_DIMENSION) {
+			throw new IllegalArgumentException("Bad size: " + width + 'x' + height);
+		} else if (stride < width * elementsPerPixel) {
+			throw new IllegalArgumentException("'stride' is smaller than a row: " + stride);
+		}
+
+		long end = offset + (height - 1L) * stride + (long)width * elementsPerPixel;
+		if (offset < 0 || height > 0 && end > length) {
+			throw new IndexOutOfBoundsException("Pixels don't fit in " + length + " elements, starting at " + offset);
+		}
+	}
+
+	/**
+	 * @param hasAlpha When {@code false}, the alpha byte is ignored and treated as 255.
+	 */
+	static void encodeIntPixels(FluidQOIEncoder encoder, int[] pixels, int offset, int width, int height,
+	                            int stride, FluidQOIChannelOrder order, boolean hasAlpha) {
+		int[] shifts = order.getIntShifts();
+
+		if (order == FluidQOIChannelOrder.ARGB && hasAlpha) {
+			for (int y = 0; y < height; y++) {
+				encoder.encodePixels(pixels, offset + y * stride, width);
+			}
+
+			return;
+		}
+
+		int   shiftR = shifts[0];
+		int   shiftG = shifts[1];
+		int   shiftB = shifts[2];
+		int   shiftA = shifts[3];
+		int   opaque = hasAlpha ? 0 : 0xFF000000;
+		int[] row    = new int[width];
+		for (int y = 0; y < height; y++) {
+			int rowOffset = offset + y * stride;
+			for (int x = 0; x < width; x++) {
+				int pixel = pixels[rowOffset + x];
+				row[x] = opaque |
+				         (pixel >>> shiftA & 0xFF) << 24 |
+				         (pixel >>> shiftR & 0xFF) << 16 |
+				         (pixel >>> shiftG & 0xFF) << 8 |
+				         pixel >>> shiftB & 0xFF;
+			}
+
+			encoder.encodePixels(row, 0, width);
+		}
+	}
+
+	/**
+	 * @param bandOffsets The offsets of red, green, blue and (optionally) alpha within a pixel
+	 */
+	static void encodeBytePixels(FluidQOIEncoder encoder, byte[] samples, int offset, int width, int height,
+	                             int stride, int pixelStride, int[] bandOffsets) {
+		for (int y = 0; y < height; y++) {
+			encoder.encodePixels(samples, offset + y * stride, width, pixelStride, bandOffsets);
+		}
+	}
+
+	/**
+	 * Passes the pixels to the encoder unchanged when the encoder has the same packed format. Otherwise, expands the
+	 * channels to 8 bits by bit replication, exactly like Java2D does when converting to a byte image.
+	 */
+	static void encodeShortPixels(FluidQOIEncoder encoder, short[] pixels, int offset, int width, int height,
+	                              int stride, int[] masks, int[] bitOffsets) {
+		if (encoder instanceof FluidQOI565Encoder && Arrays.equals(masks, MASKS_565)) {
+			for (int y = 0; y < height; y++) {
+				((FluidQOI565Encoder)encoder).encodePixels(pixels, offset + y * stride, width);
+			}
+
+			return;
+		} else if (encoder instanceof FluidQOI555Encoder && Arrays.equals(masks, MASKS_555)) {
+			for (int y = 0; y < height; y++) {
+				((FluidQOI555Encoder)encoder).encodePixels(pixels, offset + y * stride, width);
+			}
+
+			return;
+		}
+
+		int[][] expand = new int[3][];
+		for (int band = 0; band < 3; band++) {
+			int bits = Integer.bitCount(masks[band]);
+			expand[band] = new int[1 << bits];
+			for (int value = 0; value < expand[band].length; value++) {
+				expand[band][value] = value << (8 - bits) | value >> (bits * 2 - 8);
+			}
+		}
+
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			int rowOffset = offset + y * stride;
+			for (int x = 0; x < width; x++) {
+				int rgb = pixels[rowOffset + x] & 0xFFFF;
+				row[x] = 0xFF000000 |
+				         expand[0][(rgb & masks[0]) >>> bitOffsets[0]] << 16 |
+				         expand[1][(rgb & masks[1]) >>> bitOffsets[1]] << 8 |
+				         expand[2][(rgb & masks[2]) >>> bitOffsets[2]];
+			}
+
+			encoder.encodePixels(row, 0, width);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package org.digitalmodular.fluidqoi;
+
+import org.digitalmodular.fluidqoi.core.FluidQOIEncoder;
+
+/**
+ * How an encoder searches its list of recent colors. Every search produces exactly the same output; they only differ
+ * in speed.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+public enum FluidQOIRecentColorSearch {
+	/** {@link #LINEAR} for short lists, {@link #HASHED} for long lists */
+	AUTO,
+	/** Scans the list from the start */
+	LINEAR,
+	/** Keeps a hash index of the list, for constant-time lookups */
+	HASHED,
+	/**
+	 * Scans the list with SIMD instructions, using the incubating Vector API. This needs the optional
+	 * {@code src-vector} source root, compiled and run with {@code --add-modules jdk.incubator.vector}. When that's
+	 * not available, {@link #AUTO} is used instead.
+	 */
+	VECTOR;
+
+	/**
+	 * @return {@code false} when this search can't be used in this JVM, and falls back to {@link #AUTO}.
+	 */
+	public boolean isAvailable() {
+		return this != VECTOR || FluidQOIEncoder.isVectorSearchAvailable();
+	}
+}
@@ -1,70 +1,84 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIOpLayout;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-22
 public class FluidQOI555Decoder extends FluidQOIPackedShortDecoder {
-	@SuppressWarnings("AssignmentToSuperclassField")
 	public FluidQOI555Decoder() {
-		super(FluidQOI555Encoder.OP_REPEAT);
+		super(FluidQOI555Encoder.LONGEST_OP, FluidQOI555Encoder.OP_REPEAT);
 
-		opLuma222 = FluidQOI555Encoder.OP_LUMA222;
-		opRGB555 = FluidQOI555Encoder.OP_RGB555;
+		setOpLayout(FluidQOIOpLayout.getDefault(FluidQOIFormat.RGB555));
 	}
 
 	@Override
-	protected BufferedImage createImage(int width, int height) {
-		return new BufferedImage(width, height, BufferedImage.TYPE_USHORT_555_RGB);
-	}
+	protected int decodeImageImplImpl(short[] pixels, int p, int end) {
+		// Keep the state in locals for the duration of the loop
+		int lastCode = this.lastCode;
+
+		// Finish the repeat that didn't fit in the previous range
+		int pending = Math.min(pendingRepeat, end - p);
+		pendingRepeat -= pending;
+		p = writeColor(pixels, p, pending);
+
+		// Ops that start up to here are complete, so most ops need only one comparison instead of ensureRemaining()
+		int safeEnd = limit - FluidQOI555Encoder.LONGEST_OP;
+
+		decoding:
+		while (p < end) {
+			if (cursor > safeEnd) {
+				if (!ensureRemaining(FluidQOI555Encoder.LONGEST_OP)) {
+					break;
+				}
 
-	@Override
-	protected void decodeImageImplImpl(short[] pixels) {
-		int lastCode = -1;
+				safeEnd = limit - FluidQOI555Encoder.LONGEST_OP;
+			}
 
-		int p = 0;
-		while (true) {
 			int     repeatCount             = 1;
 			boolean doRecordRecentColor     = true;
 			boolean doResetRepeatMultiplier = true;
 
-			int code = in.get() & 0xFF;
+			int code = ops[cursor++] & 0xFF;
+
+			switch (opKinds[code]) {
+				case KIND_INDEX:
+					readOpIndex(code);
 
-			if (code >= opIndex) {
-				readOpIndex(code);
+					doRecordRecentColor = false;
+					if (lastCode == 0 && code == 0) { // End code
+						break decoding;
+					}
 
-				doRecordRecentColor = false;
-				if (lastCode == 0 && code == 0) { // End code
 					break;
-				}
-			} else if (code >= opRepeat) {
-				repeatCount = readOpRepeat(code);
-
-				doRecordRecentColor = p == 0;
-				doResetRepeatMultiplier = false;
-			} else if (code >= opLuma222) {
-				readOpLuma222(code);
-			} else /*if (code >= opRGB555)*/ {
-				readOpRGB555(code);
-			}
+				case KIND_REPEAT:
+					repeatCount = readOpRepeat(code);
 
-			if (repeatCount > pixels.length - p) {
-				repeatCount = (pixels.length - p) / 4;
+					doRecordRecentColor = lastCode < 0; // The first pixel of the image
+					doResetRepeatMultiplier = false;
+					break;
+				case KIND_LUMA222:
+					readOpLuma222(code);
+					break;
+				case KIND_RGB555:
+					readOpRGB555(code);
+					break;
+				default:
+					throw new AssertionError("Unimplemented op kind: " + opKinds[code]);
 			}
 
-			short shortRGB = lastRGB;
-			do {
-				pixels[p++] = shortRGB;
-
-				repeatCount--;
-			} while (repeatCount > 0);
-
-			if (p == pixels.length || in.remaining() < FluidQOI555Encoder.LONGEST_OP) {
-				break;
+			int available = end - p;
+			if (repeatCount > available) {
+				pendingRepeat = repeatCount - available;
+				repeatCount = available;
 			}
 
+			p = writeColor(pixels, p, repeatCount);
+
 			if (doRecordRecentColor) {
 				recordRecentColor();
 			}
@@ -75,5 +89,18 @@ public class FluidQOI555Decoder extends FluidQOIPackedShortDecoder {
 
 			lastCode = code;
 		}
+
+		this.lastCode = lastCode;
+		return p;
+	}
+
+	/**
+	 * Writes the last color {@code count} times.
+	 *
+	 * @return The position after the last pixel written.
+	 */
+	private int writeColor(short[] pixels, int p, int count) {
+		Arrays.fill(pixels, p, p + count, lastRGB);
+		return p + count;
 	}
 }
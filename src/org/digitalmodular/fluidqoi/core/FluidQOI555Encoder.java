@@ -1,32 +1,30 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.util.Arrays;
-
 import org.digitalmodular.fluidqoi.FluidQOIConfig;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-22
 public class FluidQOI555Encoder extends FluidQOIEncoder {
-	static final int OP_REPEAT  = 191;
-	static final int OP_LUMA222 = 128; //  63 [??DyDuDv]
-	static final int OP_RGB555  = 0;   // 128 [?R____G_] [g__B____]
+	static final int OP_REPEAT = 191; // The other ops are placed below this by the FluidQOIOpLayout
 
 	static final int LONGEST_OP = 2; // OP_RGB565
 
 	// Encoder state
-	private       short   lastRGB = 0;
-	private final short[] recentColorsList;
+	private       short                lastRGB = 0;
+	private final FluidQOIRecentColors recentColors;
+
+	private final short[] rgbChunk = new short[CHUNK_LENGTH];
 
 	public FluidQOI555Encoder(FluidQOIConfig config) {
 		super(LONGEST_OP, OP_REPEAT, config);
 
-		opLuma222 = OP_LUMA222;
-		opRGB555 = OP_RGB555;
+		setOpLayout(config.getOpLayout(FluidQOIFormat.RGB555));
 
-		recentColorsList = new short[indexLength];
+		recentColors = FluidQOIRecentColors.create(indexLength, config.getRecentColorSearch());
 	}
 
 	@Override
@@ -35,73 +33,108 @@ public class FluidQOI555Encoder extends FluidQOIEncoder {
 
 		lastRGB = 0;
 
-		Arrays.fill(recentColorsList, (short)0);
+		recentColors.reset(0);
 	}
 
 	@Override
-	public void encodePixel(byte r, byte g, byte b, byte a) {
-		// Premultiply alpha
-		short rgb = (short)((((int)((r & 0xFF) / 255.0f * (a & 0xFF) + 0.5f) & 0b11111000) << 7) |
-		                    (((int)((g & 0xFF) / 255.0f * (a & 0xFF) + 0.5f) & 0b11111000) << 2) |
-		                    (((int)((b & 0xFF) / 255.0f * (a & 0xFF) + 0.5f) & 0b11111000) >> 3));
-
-		encodePixel(rgb);
-	}
+	public void encodePixels(int[] argb, int offset, int length) {
+		while (length > 0) {
+			int chunkLength = Math.min(length, CHUNK_LENGTH);
+
+			for (int i = 0; i < chunkLength; i++) {
+				int pixel = argb[offset + i];
+				int a     = pixel >>> 24;
+
+				if (a == 255) {
+					rgbChunk[i] = (short)((pixel >> 9 & 0b01111100_00000000) |
+					                      (pixel >> 6 & 0b00000011_11100000) |
+					                      (pixel >> 3 & 0b00000000_00011111));
+				} else {
+					// Premultiply alpha
+					int row = a << 8;
+					int r   = (pixel >> 16) & 0xFF;
+					int g   = (pixel >> 8) & 0xFF;
+					int b   = pixel & 0xFF;
+					rgbChunk[i] = (short)(((PREMULTIPLY_TABLE[row | r] & 0b11111000) << 7) |
+					                      ((PREMULTIPLY_TABLE[row | g] & 0b11111000) << 2) |
+					                      ((PREMULTIPLY_TABLE[row | b] & 0b11111000) >> 3));
+				}
+			}
 
-	private void encodePixel(short rgb) {
-		boolean recordRecent = true;
+			encodePixels(rgbChunk, 0, chunkLength);
 
-		if (rgb == lastRGB) {
-			repeatCount++;
-			recordRecent = firstPixel;
-		} else {
-			if (repeatCount != 0) {
-				writeOpRepeat();
-			}
+			offset += chunkLength;
+			length -= chunkLength;
+		}
+	}
 
-			int recentColorIndex = findRecentColor(rgb);
-			if (recentColorIndex >= 0) {
-				writeOpIndex((byte)recentColorIndex);
-				recordRecent = false;
+	/**
+	 * Encodes consecutive pixels that are already packed like {@code TYPE_USHORT_555_RGB}, without any conversion. The
+	 * unused top bit is ignored.
+	 */
+	public void encodePixels(short[] pixels, int offset, int length) {
+		// Keep the state in locals for the duration of the loop
+		short   lastRGB           = this.lastRGB;
+		int     repeatCount       = this.repeatCount;
+		boolean firstPixel        = this.firstPixel;
+		int     recentColorsIndex = this.recentColorsIndex;
+
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			short rgb = (short)(pixels[i] & 0b01111111_11111111);
+
+			boolean recordRecent = true;
+
+			if (rgb == lastRGB) {
+				// Consume the rest of the run at once.
+				// The unused bit is compared too, which can only end the run early.
+				int repeats = countRepeats(pixels, i, end);
+				repeatCount += 1 + repeats;
+				i += repeats;
+				recordRecent = firstPixel;
 			} else {
-				byte dr = (byte)((rgb - (lastRGB & 0b01111100_00000000) & 0b01111100_00000000) << 16 >> 26);
-				byte dg = (byte)((rgb - (lastRGB & 0b00000011_11100000) & 0b00000011_11100000) << 22 >> 26);
-				byte db = (byte)((rgb - (lastRGB & 0b00000000_00011111) & 0b00000000_00011111) << 26 >> 26);
-				//noinspection UnnecessaryLocalVariable
-				byte dy = dg;
-				byte du = (byte)(dr - dy);
-				byte dv = (byte)(db - dy);
-
-				if (FluidQOIImageEncoder.debugging) {
-					statistics.recordDiffLumaCounts(dr, dg, db, du, dv, 0);
+				if (repeatCount != 0) {
+					writeOpRepeat(repeatCount);
+					repeatCount = 0;
 				}
 
-				if (du >= -2 && du < 2 && // Ordered by largest chance to fail this test
-				    dv >= -2 && dv < 2 &&
-				    dy >= -2 && dy < 2) {
-					writeOpLuma222(dy, du, dv);
+				int recentColorIndex = recentColors.find(rgb);
+				if (recentColorIndex >= 0) {
+					writeOpIndex((byte)recentColorIndex);
+					recordRecent = false;
 				} else {
-					writeOpRGB555(rgb);
+					byte dr = (byte)((rgb - (lastRGB & 0b01111100_00000000) & 0b01111100_00000000) << 16 >> 26);
+					byte dg = (byte)((rgb - (lastRGB & 0b00000011_11100000) & 0b00000011_11100000) << 22 >> 26);
+					byte db = (byte)((rgb - (lastRGB & 0b00000000_00011111) & 0b00000000_00011111) << 26 >> 26);
+					//noinspection UnnecessaryLocalVariable
+					byte dy = dg;
+					byte du = (byte)(dr - dy);
+					byte dv = (byte)(db - dy);
+
+					if (FluidQOIRawEncoder.debugging) {
+						statistics.recordDiffLumaCounts(dr, dg, db, du, dv, 0);
+					}
+
+					if ((outOfRange(dy, 2) | outOfRange(du, 2) | outOfRange(dv, 2)) == 0) {
+						writeOpLuma222(dy, du, dv);
+					} else {
+						writeOpRGB555(rgb);
+					}
 				}
 			}
-		}
 
-		firstPixel = false;
-		lastRGB = rgb;
-
-		if (recordRecent) {
-			recentColorsList[recentColorsIndex] = rgb;
-			recentColorsIndex = (recentColorsIndex + 1) % indexLength;
-		}
-	}
+			firstPixel = false;
+			lastRGB = rgb;
 
-	private int findRecentColor(short rgb) {
-		for (int i = 0; i < indexLength; i++) {
-			if (recentColorsList[i] == rgb) {
-				return i;
+			if (recordRecent) {
+				recentColors.set(recentColorsIndex, rgb);
+				recentColorsIndex = (recentColorsIndex + 1) % indexLength;
 			}
 		}
 
-		return -1;
+		this.lastRGB = lastRGB;
+		this.repeatCount = repeatCount;
+		this.firstPixel = firstPixel;
+		this.recentColorsIndex = recentColorsIndex;
 	}
 }
@@ -1,73 +1,87 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIOpLayout;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-22
 public class FluidQOI565Decoder extends FluidQOIPackedShortDecoder {
-	@SuppressWarnings("AssignmentToSuperclassField")
 	public FluidQOI565Decoder() {
-		super(FluidQOI565Encoder.OP_REPEAT);
+		super(FluidQOI565Encoder.LONGEST_OP, FluidQOI565Encoder.OP_REPEAT);
 
-		opRGB565 = FluidQOI565Encoder.OP_RGB565;
-		opLuma322 = FluidQOI565Encoder.OP_LUMA322;
-		opLuma433 = FluidQOI565Encoder.OP_LUMA433;
+		setOpLayout(FluidQOIOpLayout.getDefault(FluidQOIFormat.RGB565));
 	}
 
 	@Override
-	protected BufferedImage createImage(int width, int height) {
-		return new BufferedImage(width, height, BufferedImage.TYPE_USHORT_565_RGB);
-	}
+	protected int decodeImageImplImpl(short[] pixels, int p, int end) {
+		// Keep the state in locals for the duration of the loop
+		int lastCode = this.lastCode;
+
+		// Finish the repeat that didn't fit in the previous range
+		int pending = Math.min(pendingRepeat, end - p);
+		pendingRepeat -= pending;
+		p = writeColor(pixels, p, pending);
+
+		// Ops that start up to here are complete, so most ops need only one comparison instead of ensureRemaining()
+		int safeEnd = limit - FluidQOI565Encoder.LONGEST_OP;
+
+		decoding:
+		while (p < end) {
+			if (cursor > safeEnd) {
+				if (!ensureRemaining(FluidQOI565Encoder.LONGEST_OP)) {
+					break;
+				}
 
-	@Override
-	protected void decodeImageImplImpl(short[] pixels) {
-		int lastCode = -1;
+				safeEnd = limit - FluidQOI565Encoder.LONGEST_OP;
+			}
 
-		int p = 0;
-		while (true) {
 			int     repeatCount             = 1;
 			boolean doRecordRecentColor     = true;
 			boolean doResetRepeatMultiplier = true;
 
-			int code = in.get() & 0xFF;
+			int code = ops[cursor++] & 0xFF;
+
+			switch (opKinds[code]) {
+				case KIND_INDEX:
+					readOpIndex(code);
 
-			if (code >= opIndex) {
-				readOpIndex(code);
+					doRecordRecentColor = false;
+					if (lastCode == 0 && code == 0) { // End code
+						break decoding;
+					}
 
-				doRecordRecentColor = false;
-				if (lastCode == 0 && code == 0) { // End code
 					break;
-				}
-			} else if (code >= opRepeat) {
-				repeatCount = readOpRepeat(code);
-
-				doRecordRecentColor = p == 0;
-				doResetRepeatMultiplier = false;
-			} else if (code >= opRGB565) {
-				readOpRGB565();
-			} else if (code >= opLuma322) {
-				readOpLuma322(code);
-			} else /*if (code >= opLuma433)*/ {
-				readOpLuma433(code);
-			}
+				case KIND_REPEAT:
+					repeatCount = readOpRepeat(code);
 
-			if (repeatCount > pixels.length - p) {
-				repeatCount = (pixels.length - p) / 4;
+					doRecordRecentColor = lastCode < 0; // The first pixel of the image
+					doResetRepeatMultiplier = false;
+					break;
+				case KIND_RGB565:
+					readOpRGB565();
+					break;
+				case KIND_LUMA322:
+					readOpLuma322(code);
+					break;
+				case KIND_LUMA433:
+					readOpLuma433(code);
+					break;
+				default:
+					throw new AssertionError("Unimplemented op kind: " + opKinds[code]);
 			}
 
-			short shortRGB = lastRGB;
-			do {
-				pixels[p++] = shortRGB;
-
-				repeatCount--;
-			} while (repeatCount > 0);
-
-			if (p == pixels.length || in.remaining() < FluidQOI565Encoder.LONGEST_OP) {
-				break;
+			int available = end - p;
+			if (repeatCount > available) {
+				pendingRepeat = repeatCount - available;
+				repeatCount = available;
 			}
 
+			p = writeColor(pixels, p, repeatCount);
+
 			if (doRecordRecentColor) {
 				recordRecentColor();
 			}
@@ -78,5 +92,18 @@ public class FluidQOI565Decoder extends FluidQOIPackedShortDecoder {
 
 			lastCode = code;
 		}
+
+		this.lastCode = lastCode;
+		return p;
+	}
+
+	/**
+	 * Writes the last color {@code count} times.
+	 *
+	 * @return The position after the last pixel written.
+	 */
+	private int writeColor(short[] pixels, int p, int count) {
+		Arrays.fill(pixels, p, p + count, lastRGB);
+		return p + count;
 	}
 }
@@ -1,34 +1,30 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.util.Arrays;
-
 import org.digitalmodular.fluidqoi.FluidQOIConfig;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-22
 public class FluidQOI565Encoder extends FluidQOIEncoder {
-	static final int OP_REPEAT  = 132;
-	static final int OP_RGB565  = 131; //   1 [????????] [R____G__] [g__B____]
-	static final int OP_LUMA322 = 4;   // 127 [?Dy_DuDv]
-	static final int OP_LUMA433 = 0;   //   4 [??????Dy] [__Du_Dv_]
+	static final int OP_REPEAT = 132; // The other ops are placed below this by the FluidQOIOpLayout
 
 	static final int LONGEST_OP = 3; // OP_RGB565
 
 	// Encoder state
-	private       short   lastRGB = 0;
-	private final short[] recentColorsList;
+	private       short                lastRGB = 0;
+	private final FluidQOIRecentColors recentColors;
+
+	private final short[] rgbChunk = new short[CHUNK_LENGTH];
 
 	public FluidQOI565Encoder(FluidQOIConfig config) {
 		super(LONGEST_OP, OP_REPEAT, config);
 
-		opRGB565 = OP_RGB565;
-		opLuma322 = OP_LUMA322;
-		opLuma433 = OP_LUMA433;
+		setOpLayout(config.getOpLayout(FluidQOIFormat.RGB565));
 
-		recentColorsList = new short[indexLength];
+		recentColors = FluidQOIRecentColors.create(indexLength, config.getRecentColorSearch());
 	}
 
 	@Override
@@ -37,78 +33,108 @@ public class FluidQOI565Encoder extends FluidQOIEncoder {
 
 		lastRGB = 0;
 
-		Arrays.fill(recentColorsList, (short)0);
+		recentColors.reset(0);
 	}
 
 	@Override
-	public void encodePixel(byte r, byte g, byte b, byte a) {
-		// Premultiply alpha
-		short rgb = (short)((((int)((r & 0xFF) / 255.0f * (a & 0xFF) + 0.5f) & 0b11111000) << 8) |
-		                    (((int)((g & 0xFF) / 255.0f * (a & 0xFF) + 0.5f) & 0b11111100) << 3) |
-		                    (((int)((b & 0xFF) / 255.0f * (a & 0xFF) + 0.5f) & 0b11111000) >> 3));
-
-		encodePixel(rgb);
-	}
+	public void encodePixels(int[] argb, int offset, int length) {
+		while (length > 0) {
+			int chunkLength = Math.min(length, CHUNK_LENGTH);
+
+			for (int i = 0; i < chunkLength; i++) {
+				int pixel = argb[offset + i];
+				int a     = pixel >>> 24;
+
+				if (a == 255) {
+					rgbChunk[i] = (short)((pixel >> 8 & 0b11111000_00000000) |
+					                      (pixel >> 5 & 0b00000111_11100000) |
+					                      (pixel >> 3 & 0b00000000_00011111));
+				} else {
+					// Premultiply alpha
+					int row = a << 8;
+					int r   = (pixel >> 16) & 0xFF;
+					int g   = (pixel >> 8) & 0xFF;
+					int b   = pixel & 0xFF;
+					rgbChunk[i] = (short)(((PREMULTIPLY_TABLE[row | r] & 0b11111000) << 8) |
+					                      ((PREMULTIPLY_TABLE[row | g] & 0b11111100) << 3) |
+					                      ((PREMULTIPLY_TABLE[row | b] & 0b11111000) >> 3));
+				}
+			}
 
-	private void encodePixel(short rgb) {
-		boolean recordRecent = true;
+			encodePixels(rgbChunk, 0, chunkLength);
 
-		if (rgb == lastRGB) {
-			repeatCount++;
-			recordRecent = firstPixel;
-		} else {
-			if (repeatCount != 0) {
-				writeOpRepeat();
-			}
+			offset += chunkLength;
+			length -= chunkLength;
+		}
+	}
 
-			int recentColorIndex = findRecentColor(rgb);
-			if (recentColorIndex >= 0) {
-				writeOpIndex((byte)recentColorIndex);
-				recordRecent = false;
+	/**
+	 * Encodes consecutive pixels that are already packed like {@code TYPE_USHORT_565_RGB}, without any conversion.
+	 */
+	public void encodePixels(short[] pixels, int offset, int length) {
+		// Keep the state in locals for the duration of the loop
+		short   lastRGB           = this.lastRGB;
+		int     repeatCount       = this.repeatCount;
+		boolean firstPixel        = this.firstPixel;
+		int     recentColorsIndex = this.recentColorsIndex;
+
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			short rgb = pixels[i];
+
+			boolean recordRecent = true;
+
+			if (rgb == lastRGB) {
+				// Consume the rest of the run at once
+				int repeats = countRepeats(pixels, i, end);
+				repeatCount += 1 + repeats;
+				i += repeats;
+				recordRecent = firstPixel;
 			} else {
-				byte dr = (byte)((rgb - (lastRGB & 0b11111000_00000000) & 0b11111000_00000000) << 15 >> 26);
-				byte dg = (byte)((rgb - (lastRGB & 0b00000111_11100000) & 0b00000111_11100000) << 21 >> 26);
-				byte db = (byte)((rgb - (lastRGB & 0b00000000_00011111) & 0b00000000_00011111) << 26 >> 26);
-				//noinspection UnnecessaryLocalVariable
-				byte dy = dg;
-				byte du = (byte)(dr - dy);
-				byte dv = (byte)(db - dy);
-
-				if (FluidQOIImageEncoder.debugging) {
-					statistics.recordDiffLumaCounts(dr, dg, db, du, dv, 0);
+				if (repeatCount != 0) {
+					writeOpRepeat(repeatCount);
+					repeatCount = 0;
 				}
 
-				if (du >= -2 && du < 2 && // Ordered by largest chance to fail this test
-				    dv >= -2 && dv < 2 &&
-				    dy >= -4 && dy < 4) {
-					writeOpLuma322(dy, du, dv);
-				} else if (du >= -4 && du < 4 && // Ordered by largest chance to fail this test
-				           dv >= -4 && dv < 4 &&
-				           dy >= -8 && dy < 8) {
-					writeOpLuma433(dy, du, dv);
+				int recentColorIndex = recentColors.find(rgb);
+				if (recentColorIndex >= 0) {
+					writeOpIndex((byte)recentColorIndex);
+					recordRecent = false;
 				} else {
-					writeOpRGB565(rgb);
+					byte dr = (byte)((rgb - (lastRGB & 0b11111000_00000000) & 0b11111000_00000000) << 15 >> 26);
+					byte dg = (byte)((rgb - (lastRGB & 0b00000111_11100000) & 0b00000111_11100000) << 21 >> 26);
+					byte db = (byte)((rgb - (lastRGB & 0b00000000_00011111) & 0b00000000_00011111) << 26 >> 26);
+					//noinspection UnnecessaryLocalVariable
+					byte dy = dg;
+					byte du = (byte)(dr - dy);
+					byte dv = (byte)(db - dy);
+
+					if (FluidQOIRawEncoder.debugging) {
+						statistics.recordDiffLumaCounts(dr, dg, db, du, dv, 0);
+					}
+
+					if ((outOfRange(dy, 3) | outOfRange(du, 2) | outOfRange(dv, 2)) == 0) {
+						writeOpLuma322(dy, du, dv);
+					} else if ((outOfRange(dy, 4) | outOfRange(du, 3) | outOfRange(dv, 3)) == 0) {
+						writeOpLuma433(dy, du, dv);
+					} else {
+						writeOpRGB565(rgb);
+					}
 				}
 			}
-		}
 
-		firstPixel = false;
-		lastRGB = rgb;
+			firstPixel = false;
+			lastRGB = rgb;
 
-		if (recordRecent) {
-			recentColorsList[recentColorsIndex] = rgb;
-			recentColorsIndex = (recentColorsIndex + 1) % indexLength;
-		}
-	}
-
-	private int findRecentColor(short rgb) {
-		for (int i = 0; i < indexLength; i++) {
-			if (recentColorsList[i] == rgb) {
-				return i;
+			if (recordRecent) {
+				recentColors.set(recentColorsIndex, rgb);
+				recentColorsIndex = (recentColorsIndex + 1) % indexLength;
 			}
 		}
 
-		return -1;
+		this.lastRGB = lastRGB;
+		this.repeatCount = repeatCount;
+		this.firstPixel = firstPixel;
+		this.recentColorsIndex = recentColorsIndex;
 	}
-
 }
@@ -1,78 +1,94 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.awt.image.BufferedImage;
+import org.digitalmodular.fluidqoi.FluidQOIChannelOrder;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIOpLayout;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-25 Split from FluidQOIEncoder
 public class FluidQOI8888Decoder extends FluidQOIInterleavedByteDecoder {
-	@SuppressWarnings("AssignmentToSuperclassField")
 	public FluidQOI8888Decoder() {
-		super(FluidQOI8888Encoder.OP_REPEAT);
+		super(FluidQOI8888Encoder.LONGEST_OP, FluidQOI8888Encoder.OP_REPEAT);
 
-		opLuma4444 = FluidQOI8888Encoder.OP_LUMA4444;
-		opMask4 = FluidQOI8888Encoder.OP_MASK4;
-		opLuma222 = FluidQOI8888Encoder.OP_LUMA222;
-		opLuma644 = FluidQOI8888Encoder.OP_LUMA644;
+		setOpLayout(FluidQOIOpLayout.getDefault(FluidQOIFormat.RGBA8888));
 	}
 
 	@Override
-	protected BufferedImage createImage(int width, int height) {
-		return new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+	public FluidQOIChannelOrder getChannelOrder() {
+		return FluidQOIChannelOrder.ABGR;
 	}
 
 	@Override
-	protected void decodeImageImplImpl(byte[] pixels) {
-		int lastCode = -1;
+	protected int decodeImageImplImpl(byte[] pixels, int p, int end) {
+		// Keep the state in locals for the duration of the loop
+		int lastCode = this.lastCode;
+
+		// Finish the repeat that didn't fit in the previous range
+		int pending = Math.min(pendingRepeat, (end - p) / 4);
+		pendingRepeat -= pending;
+		p = writeColor(pixels, p, pending);
+
+		// Ops that start up to here are complete, so most ops need only one comparison instead of ensureRemaining()
+		int safeEnd = limit - FluidQOI8888Encoder.LONGEST_OP;
+
+		decoding:
+		while (p < end) {
+			if (cursor > safeEnd) {
+				if (!ensureRemaining(FluidQOI8888Encoder.LONGEST_OP)) {
+					break;
+				}
+
+				safeEnd = limit - FluidQOI8888Encoder.LONGEST_OP;
+			}
 
-		int p = 0;
-		while (true) {
 			int     repeatCount             = 1;
 			boolean doRecordRecentColor     = true;
 			boolean doResetRepeatMultiplier = true;
 
-			int code = in.get() & 0xFF;
+			int code = ops[cursor++] & 0xFF;
+
+			switch (opKinds[code]) {
+				case KIND_INDEX:
+					readOpIndex(code);
 
-			if (code >= opIndex) {
-				readOpIndex(code);
+					doRecordRecentColor = false;
+					if (lastCode == 0 && code == 0) { // End code
+						break decoding;
+					}
 
-				doRecordRecentColor = false;
-				if (lastCode == 0 && code == 0) { // End code
 					break;
-				}
-			} else if (code >= opRepeat) {
-				repeatCount = readOpRepeat(code);
-
-				doRecordRecentColor = p == 0;
-				doResetRepeatMultiplier = false;
-			} else if (code >= opLuma4444) {
-				readOpLuma4444(code);
-			} else if (code >= opMask4) {
-				readOpMask4(code);
-			} else if (code >= opLuma222) {
-				readOpLuma222(code);
-			} else /*if (code >= opLuma644)*/ {
-				readOpLuma644(code);
-			}
+				case KIND_REPEAT:
+					repeatCount = readOpRepeat(code);
 
-			if (repeatCount * 4 > pixels.length - p) {
-				repeatCount = (pixels.length - p) / 4;
+					doRecordRecentColor = lastCode < 0; // The first pixel of the image
+					doResetRepeatMultiplier = false;
+					break;
+				case KIND_LUMA4444:
+					readOpLuma4444(code);
+					break;
+				case KIND_MASK4:
+					readOpMask4(code);
+					break;
+				case KIND_LUMA222:
+					readOpLuma222(code);
+					break;
+				case KIND_LUMA644:
+					readOpLuma644(code);
+					break;
+				default:
+					throw new AssertionError("Unimplemented op kind: " + opKinds[code]);
 			}
 
-			do {
-				pixels[p++] = lastA;
-				pixels[p++] = lastB;
-				pixels[p++] = lastG;
-				pixels[p++] = lastR;
-
-				repeatCount--;
-			} while (repeatCount > 0);
-
-			if (p == pixels.length || in.remaining() < FluidQOI8888Encoder.LONGEST_OP) {
-				break;
+			int available = (end - p) / 4;
+			if (repeatCount > available) {
+				pendingRepeat = repeatCount - available;
+				repeatCount = available;
 			}
 
+			p = writeColor(pixels, p, repeatCount);
+
 			if (doRecordRecentColor) {
 				recordRecentColor();
 			}
@@ -83,5 +99,31 @@ public class FluidQOI8888Decoder extends FluidQOIInterleavedByteDecoder {
 
 			lastCode = code;
 		}
+
+		this.lastCode = lastCode;
+		return p;
+	}
+
+	/**
+	 * Writes the last color {@code count} times.
+	 *
+	 * @return The position after the last pixel written.
+	 */
+	private int writeColor(byte[] pixels, int p, int count) {
+		int color = lastColor;
+		int start = p;
+		int n     = Math.min(count, RUN_FILL_THRESHOLD);
+		for (int i = 0; i < n; i++) {
+			pixels[p++] = (byte)(color >> 24);
+			pixels[p++] = (byte)color;
+			pixels[p++] = (byte)(color >> 8);
+			pixels[p++] = (byte)(color >> 16);
+		}
+
+		if (count > n) {
+			p = fillRun(pixels, start, p - start, count * 4);
+		}
+
+		return p;
 	}
 }
@@ -1,147 +1,124 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.util.Arrays;
-
 import org.digitalmodular.fluidqoi.FluidQOIConfig;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-25 Split from FluidQOIEncoder
 public class FluidQOI8888Encoder extends FluidQOIEncoder {
-	static final int OP_REPEAT   = 144;
-	static final int OP_LUMA4444 = 143; //   1 [????????] [Dr__Dg__] [Db__Da__]
-	static final int OP_MASK4    = 127; //  16 [????rgba] 4 bit channel mask, then individual channel bytes
-	static final int OP_LUMA222  = 64;  //  63 [??DyDuDv]
-	static final int OP_LUMA644  = 0;   //  64 [??Dy____] [Du__Dv__]
+	static final int OP_REPEAT = 144; // The other ops are placed below this by the FluidQOIOpLayout
 
 	static final int LONGEST_OP = 5; // OP_MASK4
 
 	// Encoder state
-	private         byte     lastR = 0;
-	private         byte     lastG = 0;
-	private         byte     lastB = 0;
-	private         byte     lastA = (byte)0xFF;
-	protected final byte[][] recentColorsList;
+	/** {@code 0xAARRGGBB} */
+	private       int                  lastColor = 0xFF000000;
+	private final FluidQOIRecentColors recentColors;
 
-	@SuppressWarnings("AssignmentToSuperclassField")
 	public FluidQOI8888Encoder(FluidQOIConfig config) {
 		super(LONGEST_OP, OP_REPEAT, config);
 
-		opLuma4444 = OP_LUMA4444;
-		opMask4 = OP_MASK4;
-		opLuma222 = OP_LUMA222;
-		opLuma644 = OP_LUMA644;
+		setOpLayout(config.getOpLayout(FluidQOIFormat.RGBA8888));
 
-		recentColorsList = new byte[indexLength][4];
+		recentColors = FluidQOIRecentColors.create(indexLength, config.getRecentColorSearch());
 	}
 
 	@Override
 	protected void resetEncoderState() {
 		super.resetEncoderState();
 
-		lastR = 0;
-		lastG = 0;
-		lastB = 0;
-		lastA = (byte)0xFF;
+		lastColor = 0xFF000000;
 
-		for (byte[] bytes : recentColorsList) {
-			Arrays.fill(bytes, (byte)0);
-		}
+		recentColors.reset(0);
 	}
 
 	@Override
-	public void encodePixel(byte r, byte g, byte b, byte a) {
-		boolean recordRecent = true;
-
-		int mask = 0;
-		if (lastR != r) {
-			mask |= 0b1000;
-		}
-		if (lastG != g) {
-			mask |= 0b0100;
-		}
-		if (lastB != b) {
-			mask |= 0b0010;
-		}
-		if (lastA != a) {
-			mask |= 0b0001;
-		}
-
-		if (mask == 0) {
-			repeatCount++;
-			recordRecent = firstPixel;
-		} else {
-			if (repeatCount != 0) {
-				writeOpRepeat();
-			}
-
-			int recentColorIndex = findRecentColor(r, g, b, a);
-			if (recentColorIndex >= 0) {
-				writeOpIndex(recentColorIndex);
-				recordRecent = false;
+	public void encodePixels(int[] argb, int offset, int length) {
+		// Keep the state in locals for the duration of the loop
+		int     lastColor         = this.lastColor;
+		int     repeatCount       = this.repeatCount;
+		boolean firstPixel        = this.firstPixel;
+		int     recentColorsIndex = this.recentColorsIndex;
+
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			int pixel = argb[i];
+
+			boolean recordRecent = true;
+
+			int diff = pixel ^ lastColor;
+			if (diff == 0) {
+				// Consume the rest of the run at once
+				int repeats = countRepeats(argb, i, end);
+				repeatCount += 1 + repeats;
+				i += repeats;
+				recordRecent = firstPixel;
 			} else {
-				byte dr = (byte)(r - lastR); // wrap around 8 bits, but keep signed
-				byte dg = (byte)(g - lastG);
-				byte db = (byte)(b - lastB);
-				byte da = (byte)(a - lastA);
-				//noinspection UnnecessaryLocalVariable
-				byte dy = dg;
-				byte du = (byte)(dr - dy);
-				byte dv = (byte)(db - dy);
-
-				if (FluidQOIImageEncoder.debugging) {
-					statistics.recordDiffLumaCounts(dr, dg, db, du, dv, da);
+				if (repeatCount != 0) {
+					writeOpRepeat(repeatCount);
+					repeatCount = 0;
 				}
 
-				if ((mask & 0b0001) == 0) { // Same alpha
-					if (du >= -2 && du < 2 && // Ordered by largest chance to fail this test
-					    dv >= -2 && dv < 2 &&
-					    dy >= -2 && dy < 2) {
-						writeOpLuma222(dy, du, dv);
-					} else if (du >= -8 && du < 8 && // Ordered by largest chance to fail this test
-					           dv >= -8 && dv < 8 &&
-					           dy >= -32 && dy < 32) {
-						writeOpLuma644(dy, du, dv);
-					} else {
-						writeOpMask4(mask, r, g, b, a);
+				int recentColorIndex = recentColors.find(pixel);
+				if (recentColorIndex >= 0) {
+					writeOpIndex(recentColorIndex);
+					recordRecent = false;
+				} else {
+					int  delta = subtractBytes(pixel, lastColor);
+					byte dr    = (byte)(delta >> 16); // wrap around 8 bits, but keep signed
+					byte dg    = (byte)(delta >> 8);
+					byte db    = (byte)delta;
+					byte da    = (byte)(delta >> 24);
+					//noinspection UnnecessaryLocalVariable
+					byte dy = dg;
+					byte du = (byte)(dr - dy);
+					byte dv = (byte)(db - dy);
+
+					if (FluidQOIRawEncoder.debugging) {
+						statistics.recordDiffLumaCounts(dr, dg, db, du, dv, da);
 					}
-				} else { // Not same alpha
-					if (du >= -8 && du < 8 &&
-					    dv >= -8 && dv < 8 &&
-					    dy >= -8 && dy < 8 &&
-					    da >= -8 && da < 8) {
-						writeOpLuma4444(dy, du, dv, da);
-					} else {
-						writeOpMask4(mask, r, g, b, a);
+
+					if (da == 0) { // Same alpha
+						if ((outOfRange(dy, 2) | outOfRange(du, 2) | outOfRange(dv, 2)) == 0) {
+							writeOpLuma222(dy, du, dv);
+						} else if ((outOfRange(dy, 6) | outOfRange(du, 4) | outOfRange(dv, 4)) == 0) {
+							writeOpLuma644(dy, du, dv);
+						} else {
+							writeOpMask4(diff, pixel);
+						}
+					} else { // Not same alpha
+						if ((outOfRange(dy, 4) | outOfRange(du, 4) | outOfRange(dv, 4) | outOfRange(da, 4)) == 0) {
+							writeOpLuma4444(dy, du, dv, da);
+						} else {
+							writeOpMask4(diff, pixel);
+						}
 					}
 				}
 			}
-		}
 
-		firstPixel = false;
-		lastR = r;
-		lastG = g;
-		lastB = b;
-		lastA = a;
-
-		if (recordRecent) {
-			recentColorsList[recentColorsIndex][0] = r;
-			recentColorsList[recentColorsIndex][1] = g;
-			recentColorsList[recentColorsIndex][2] = b;
-			recentColorsList[recentColorsIndex][3] = a;
-			recentColorsIndex = (recentColorsIndex + 1) % indexLength;
-		}
-	}
+			firstPixel = false;
+			lastColor = pixel;
 
-	private int findRecentColor(byte r, byte g, byte b, byte a) {
-		for (int i = 0; i < indexLength; i++) {
-			if (recentColorsList[i][0] == r && recentColorsList[i][1] == g &&
-			    recentColorsList[i][2] == b && recentColorsList[i][3] == a) {
-				return i;
+			if (recordRecent) {
+				recentColors.set(recentColorsIndex, pixel);
+				recentColorsIndex = (recentColorsIndex + 1) % indexLength;
 			}
 		}
-		return -1;
+
+		this.lastColor = lastColor;
+		this.repeatCount = repeatCount;
+		this.firstPixel = firstPixel;
+		this.recentColorsIndex = recentColorsIndex;
+	}
+
+	private void writeOpMask4(int diff, int pixel) {
+		int mask = ((diff & 0xFF0000) != 0 ? 0b1000 : 0) |
+		           ((diff & 0x00FF00) != 0 ? 0b0100 : 0) |
+		           ((diff & 0x0000FF) != 0 ? 0b0010 : 0) |
+		           ((diff >>> 24) != 0 ? 0b0001 : 0);
+		writeOpMask4(mask, (byte)(pixel >> 16), (byte)(pixel >> 8), (byte)pixel, (byte)(pixel >> 24));
 	}
 }
@@ -1,126 +1,113 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.util.Arrays;
-
 import org.digitalmodular.fluidqoi.FluidQOIConfig;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-25 Split from FluidQOIEncoder
 public class FluidQOI888Encoder extends FluidQOIEncoder {
-	static final int OP_REPEAT  = 135;
-	static final int OP_MASK3   = 127; //   8 [?????rgb] 3 bit channel mask, then individual channel bytes
-	static final int OP_LUMA222 = 64;  //  63 [??DyDuDv]
-	static final int OP_LUMA644 = 0;   //  64 [??Dy____] [Du__Dv__]
+	static final int OP_REPEAT = 135; // The other ops are placed below this by the FluidQOIOpLayout
 
 	static final int LONGEST_OP = 4; // OP_MASK3
 
 	// Encoder state
-	private       byte     lastR = 0;
-	private       byte     lastG = 0;
-	private       byte     lastB = 0;
-	private final byte[][] recentColorsList;
+	/** {@code 0x00RRGGBB} */
+	private       int                  lastColor = 0;
+	private final FluidQOIRecentColors recentColors;
 
-	@SuppressWarnings("AssignmentToSuperclassField")
 	public FluidQOI888Encoder(FluidQOIConfig config) {
 		super(LONGEST_OP, OP_REPEAT, config);
 
-		opMask3 = OP_MASK3;
-		opLuma222 = OP_LUMA222;
-		opLuma644 = OP_LUMA644;
+		setOpLayout(config.getOpLayout(FluidQOIFormat.RGB888));
 
-		recentColorsList = new byte[indexLength][3];
+		recentColors = FluidQOIRecentColors.create(indexLength, config.getRecentColorSearch());
 	}
 
 	@Override
 	protected void resetEncoderState() {
 		super.resetEncoderState();
 
-		lastR = 0;
-		lastG = 0;
-		lastB = 0;
+		lastColor = 0;
 
-		for (byte[] bytes : recentColorsList) {
-			Arrays.fill(bytes, (byte)0);
-		}
+		recentColors.reset(0);
 	}
 
 	@Override
-	public void encodePixel(byte r, byte g, byte b, byte a) {
-		boolean recordRecent = true;
-
-		int mask = 0;
-		if (lastR != r) {
-			mask |= 0b100;
-		}
-		if (lastG != g) {
-			mask |= 0b010;
-		}
-		if (lastB != b) {
-			mask |= 0b001;
-		}
-
-		if (mask == 0) {
-			repeatCount++;
-			recordRecent = firstPixel;
-		} else {
-			if (repeatCount != 0) {
-				writeOpRepeat();
-			}
-
-			int recentColorIndex = findRecentColor(r, g, b);
-			if (recentColorIndex >= 0) {
-				writeOpIndex((byte)recentColorIndex);
-				recordRecent = false;
+	public void encodePixels(int[] argb, int offset, int length) {
+		// Keep the state in locals for the duration of the loop
+		int     lastColor         = this.lastColor;
+		int     repeatCount       = this.repeatCount;
+		boolean firstPixel        = this.firstPixel;
+		int     recentColorsIndex = this.recentColorsIndex;
+
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			int pixel = argb[i] & 0xFFFFFF;
+
+			boolean recordRecent = true;
+
+			if (pixel == lastColor) {
+				// Consume the rest of the run at once. Alpha is compared too, which can only end the run early.
+				int repeats = countRepeats(argb, i, end);
+				repeatCount += 1 + repeats;
+				i += repeats;
+				recordRecent = firstPixel;
 			} else {
-				byte dr = (byte)(r - lastR); // wrap around 8 bits, but keep signed
-				byte dg = (byte)(g - lastG);
-				byte db = (byte)(b - lastB);
-				//noinspection UnnecessaryLocalVariable
-				byte dy = dg;
-				byte du = (byte)(dr - dy);
-				byte dv = (byte)(db - dy);
-
-				if (FluidQOIImageEncoder.debugging) {
-					statistics.recordDiffLumaCounts(dr, dg, db, du, dv, 0);
+				if (repeatCount != 0) {
+					writeOpRepeat(repeatCount);
+					repeatCount = 0;
 				}
 
-				if (du >= -2 && du < 2 && // Ordered by largest chance to fail this test
-				    dv >= -2 && dv < 2 &&
-				    dy >= -2 && dy < 2) {
-					writeOpLuma222(dy, du, dv);
-				} else if (du >= -8 && du < 8 && // Ordered by largest chance to fail this test
-				           dv >= -8 && dv < 8 &&
-				           dy >= -32 && dy < 32) {
-					writeOpLuma644(dy, du, dv);
+				int recentColorIndex = recentColors.find(pixel);
+				if (recentColorIndex >= 0) {
+					writeOpIndex((byte)recentColorIndex);
+					recordRecent = false;
 				} else {
-					writeOpMask3(mask, r, g, b);
+					int  delta = subtractBytes(pixel, lastColor);
+					byte dr    = (byte)(delta >> 16); // wrap around 8 bits, but keep signed
+					byte dg    = (byte)(delta >> 8);
+					byte db    = (byte)delta;
+					//noinspection UnnecessaryLocalVariable
+					byte dy = dg;
+					byte du = (byte)(dr - dy);
+					byte dv = (byte)(db - dy);
+
+					if (FluidQOIRawEncoder.debugging) {
+						statistics.recordDiffLumaCounts(dr, dg, db, du, dv, 0);
+					}
+
+					if ((outOfRange(dy, 2) | outOfRange(du, 2) | outOfRange(dv, 2)) == 0) {
+						writeOpLuma222(dy, du, dv);
+					} else if ((outOfRange(dy, 6) | outOfRange(du, 4) | outOfRange(dv, 4)) == 0) {
+						writeOpLuma644(dy, du, dv);
+					} else {
+						writeOpMask3(pixel ^ lastColor, pixel);
+					}
 				}
 			}
-		}
 
-		firstPixel = false;
-		lastR = r;
-		lastG = g;
-		lastB = b;
+			firstPixel = false;
+			lastColor = pixel;
 
-		if (recordRecent) {
-			recentColorsList[recentColorsIndex][0] = r;
-			recentColorsList[recentColorsIndex][1] = g;
-			recentColorsList[recentColorsIndex][2] = b;
-			recentColorsIndex = (recentColorsIndex + 1) % indexLength;
+			if (recordRecent) {
+				recentColors.set(recentColorsIndex, pixel);
+				recentColorsIndex = (recentColorsIndex + 1) % indexLength;
+			}
 		}
+
+		this.lastColor = lastColor;
+		this.repeatCount = repeatCount;
+		this.firstPixel = firstPixel;
+		this.recentColorsIndex = recentColorsIndex;
 	}
 
-	private int findRecentColor(byte r, byte g, byte b) {
-		for (int i = 0; i < indexLength; i++) {
-			if (recentColorsList[i][0] == r && recentColorsList[i][1] == g &&
-			    recentColorsList[i][2] == b) {
-				return i;
-			}
-		}
-		return -1;
+	private void writeOpMask3(int diff, int pixel) {
+		int mask = ((diff & 0xFF0000) != 0 ? 0b100 : 0) |
+		           ((diff & 0x00FF00) != 0 ? 0b010 : 0) |
+		           ((diff & 0x0000FF) != 0 ? 0b001 : 0);
+		writeOpMask3(mask, (byte)(pixel >> 16), (byte)(pixel >> 8), (byte)pixel);
 	}
 }
@@ -1,6 +1,8 @@
 package org.digitalmodular.fluidqoi.core;
 
 import org.digitalmodular.fluidqoi.FluidQOIEncoderStatistics;
+import org.digitalmodular.fluidqoi.FluidQOIOp;
+import org.digitalmodular.fluidqoi.FluidQOIOpLayout;
 
 /**
  * Superclass containing common elements for both encoder and decoder
@@ -24,6 +26,9 @@ public class FluidQOICodec {
 	protected int opMask3    = 0;
 	protected int opMask4    = 0;
 
+	/** Determines the op codes above, except for those of the index and repeat ops */
+	protected FluidQOIOpLayout opLayout = null;
+
 	// Encoder/Decoder state
 	protected int recentColorsIndex = 0;
 
@@ -44,7 +49,63 @@ public class FluidQOICodec {
 		repeatLength = opIndex - opRepeat; // Alternatively: remainingCodeSpace - indexLength
 	}
 
+	/**
+	 * Sets the first code of every op of the layout. Ops of other formats keep their (meaningless) codes.
+	 */
+	protected void setOpLayout(FluidQOIOpLayout opLayout) {
+		this.opLayout = opLayout;
+
+		for (FluidQOIOp op : opLayout.getOps()) {
+			int start = opLayout.getStart(op);
+			switch (op) {
+				case LUMA222:
+					opLuma222 = start;
+					break;
+				case LUMA322:
+					opLuma322 = start;
+					break;
+				case LUMA433:
+					opLuma433 = start;
+					break;
+				case LUMA644:
+					opLuma644 = start;
+					break;
+				case LUMA4444:
+					opLuma4444 = start;
+					break;
+				case MASK3:
+					opMask3 = start;
+					break;
+				case MASK4:
+					opMask4 = start;
+					break;
+				case RGB555:
+					opRGB555 = start;
+					break;
+				case RGB565:
+					opRGB565 = start;
+					break;
+				default:
+					throw new AssertionError("Unimplemented op: " + op);
+			}
+		}
+	}
+
 	protected void resetCodecState() {
 		recentColorsIndex = 0;
 	}
+
+	/**
+	 * Adds every byte of two packed colors separately, wrapping around within each byte (SIMD within a register).
+	 */
+	static int addBytes(int x, int y) {
+		return ((x & 0x7F7F7F7F) + (y & 0x7F7F7F7F)) ^ ((x ^ y) & 0x80808080);
+	}
+
+	/**
+	 * Subtracts every byte of two packed colors separately, wrapping around within each byte (SIMD within a register).
+	 */
+	static int subtractBytes(int x, int y) {
+		return ((x | 0x80808080) - (y & 0x7F7F7F7F)) ^ ((x ^ ~y) & 0x80808080);
+	}
 }
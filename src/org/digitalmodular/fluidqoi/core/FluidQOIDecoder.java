@@ -1,10 +1,12 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
-import org.digitalmodular.fluidqoi.FluidQOIFormat;
-import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIOpLayout;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
 
 /**
  * Superclass for all decoders
@@ -13,41 +15,246 @@ import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
  */
 // Created 2022-05-27
 public abstract class FluidQOIDecoder extends FluidQOICodec {
-	protected ByteBuffer in = null;
+	/**
+	 * The length of the window that buffers without an accessible array are copied into. It's reused, so it stays in
+	 * the cache, and copying it is faster than reading every byte of the buffer with {@link ByteBuffer#get(int)}.
+	 */
+	private static final int WINDOW_LENGTH = 8192;
+
+	// The kinds of ops in the op table
+	protected static final byte KIND_INDEX    = 0;
+	protected static final byte KIND_REPEAT   = 1;
+	protected static final byte KIND_LUMA222  = 2;
+	protected static final byte KIND_LUMA322  = 3;
+	protected static final byte KIND_LUMA433  = 4;
+	protected static final byte KIND_LUMA644  = 5;
+	protected static final byte KIND_LUMA4444 = 6;
+	protected static final byte KIND_MASK3    = 7;
+	protected static final byte KIND_MASK4    = 8;
+	protected static final byte KIND_RGB555   = 9;
+	protected static final byte KIND_RGB565   = 10;
+
+	private ByteBuffer          in      = null;
+	/** The channel that refills {@link #in} when streaming, or {@code null} when {@link #in} holds all ops */
+	private ReadableByteChannel channel = null;
+
+	/**
+	 * The ops are read from this array instead of from {@link #in}, which avoids the bookkeeping of
+	 * {@link ByteBuffer#get()} for every byte. It's the backing array of {@link #in}, or a window of it that's copied
+	 * (for example from a memory-mapped file).
+	 */
+	protected byte[] ops    = null;
+	/** The index in {@link #ops} of the next byte */
+	protected int    cursor = 0;
+	/** The index in {@link #ops} after the last byte */
+	protected int    limit  = 0;
+
+	/** The index in {@link #ops} of the start of {@link #in} */
+	private int    opsOffset = 0;
+	private byte[] window    = null;
 
 	private int repeatMultiplier = 1;
 
-	protected FluidQOIDecoder(int opRepeat) {
+	/** The length of the zero bytes that the encoder writes after the last op */
+	private final int longestOp;
+
+	/**
+	 * The kind of op of every code, so the decoder loops can switch on it instead of comparing the code against the
+	 * start of every op in turn. It's built once per indexLength and op layout, which together determine all codes.
+	 */
+	protected final byte[] opKinds            = new byte[256];
+	/** The indexLength that {@link #opKinds} was built for, or {@code 0} when it has to be built */
+	private         int    opKindsIndexLength = 0;
+
+	// Decoder state that has to survive between calls when decoding incrementally
+	protected int lastCode      = -1;
+	/** The pixels of a repeat that didn't fit in the destination range of the previous call */
+	protected int pendingRepeat = 0;
+
+	protected FluidQOIDecoder(int longestOp, int opRepeat) {
+		this.longestOp = longestOp;
 		// We have to delay setting opIndex until the indexLength is decoded from the file.
 		//noinspection AssignmentToSuperclassField
 		this.opRepeat = opRepeat;
 	}
 
-	public BufferedImage decode(ByteBuffer in, int width, int height, FluidQOIFormat format, int indexLength) {
-		this.in = in;
+	/**
+	 * @param in The ops, starting right after the header
+	 */
+	protected void beginDecoding(ByteBuffer in, int indexLength) {
+		beginDecoding(null, in, indexLength);
+	}
+
+	/**
+	 * @param channel Refills {@code buffer} while decoding, or {@code null} when {@code buffer} holds all ops
+	 * @param buffer  The ops that have already been read, ready to be read. Its capacity has to be at least the length
+	 *                of the longest op.
+	 */
+	protected void beginDecoding(ReadableByteChannel channel, ByteBuffer buffer, int indexLength) {
+		setInput(buffer);
+		this.channel = channel;
 
 		setIndexLength(indexLength, opRepeat);
 
+		if (opKindsIndexLength != indexLength) {
+			for (int code = 0; code < 256; code++) {
+				opKinds[code] = getOpKind(code);
+			}
+
+			opKindsIndexLength = indexLength;
+		}
+
 		resetDecoderState();
-		BufferedImage image = decodeImageImpl(width, height, format);
+	}
+
+	/**
+	 * Sets the op layout of the next image, from its header. It stays in effect for the following images, until it's
+	 * set again.
+	 *
+	 * @throws IllegalArgumentException When the layout is of another format than the decoder.
+	 */
+	@Override
+	public void setOpLayout(FluidQOIOpLayout opLayout) {
+		if (opLayout == this.opLayout) {
+			return;
+		} else if (this.opLayout != null && opLayout.getFormat() != this.opLayout.getFormat()) {
+			throw new IllegalArgumentException("The op layout is of another format: " + opLayout);
+		}
+
+		super.setOpLayout(opLayout);
+		opKindsIndexLength = 0;
+	}
+
+	/**
+	 * @return The kind of op that the code starts, one of the {@code KIND_} constants.
+	 */
+	private byte getOpKind(int code) {
+		if (code >= opIndex) {
+			return KIND_INDEX;
+		} else if (code >= opRepeat) {
+			return KIND_REPEAT;
+		}
+
+		switch (opLayout.getOp(code)) {
+			case LUMA222:
+				return KIND_LUMA222;
+			case LUMA322:
+				return KIND_LUMA322;
+			case LUMA433:
+				return KIND_LUMA433;
+			case LUMA644:
+				return KIND_LUMA644;
+			case LUMA4444:
+				return KIND_LUMA4444;
+			case MASK3:
+				return KIND_MASK3;
+			case MASK4:
+				return KIND_MASK4;
+			case RGB555:
+				return KIND_RGB555;
+			case RGB565:
+				return KIND_RGB565;
+			default:
+				throw new AssertionError("Unimplemented op: " + opLayout.getOp(code));
+		}
+	}
+
+	protected void finishDecoding() {
+		setInput(null);
+		channel = null;
 
 		totalStatistics.add(statistics);
+	}
 
-		return image;
+	/**
+	 * Starts decoding an image a part at a time, with {@code decodeMore()} of the subclass, which decodes as much as
+	 * possible and keeps all state until the next call. This serves two cases, which can be combined:
+	 * <ul>
+	 * <li>The ops arrive in chunks, for example from the network. Each chunk is passed to {@link #setInput(ByteBuffer)}
+	 * before decoding it.</li>
+	 * <li>The pixels are needed a range at a time, for example to convert them one row at a time into a destination
+	 * with a different layout.</li>
+	 * </ul>
+	 *
+	 * @param channel Refills {@code in} while decoding, or {@code null} when {@code in} holds all ops
+	 * @param in      The ops, or {@code null} when they're passed to {@link #setInput(ByteBuffer)}
+	 */
+	public void beginIncremental(ReadableByteChannel channel, ByteBuffer in, int indexLength) {
+		beginDecoding(channel, in, indexLength);
+	}
+
+	/**
+	 * Replaces the ops with the next chunk. The decoder stops when fewer bytes remain than the longest op of the
+	 * format, and the caller has to prepend those to the next chunk. The position of the chunk is advanced by every
+	 * call of {@code decodeMore()}.
+	 */
+	public void setInput(ByteBuffer in) {
+		this.in = in;
+
+		if (in != null) {
+			loadInput();
+		} else {
+			ops = null;
+			cursor = 0;
+			limit = 0;
+		}
+	}
+
+	/**
+	 * Advances the position of the buffer past the ops that have been read.
+	 */
+	protected void storeInput() {
+		in.position(cursor - opsOffset);
+	}
+
+	private void loadInput() {
+		if (in.hasArray()) {
+			ops = in.array();
+			opsOffset = in.arrayOffset();
+			cursor = opsOffset + in.position();
+			limit = opsOffset + in.limit();
+		} else {
+			if (window == null) {
+				window = new byte[WINDOW_LENGTH];
+			}
+
+			int length = Math.min(in.remaining(), window.length);
+			in.get(in.position(), window, 0, length);
+
+			ops = window;
+			opsOffset = -in.position();
+			cursor = 0;
+			limit = length;
+		}
+	}
+
+	/**
+	 * Checks that the last op is followed by the end of the image: the zero bytes that the encoder writes, so the
+	 * longest op can always be read at once. Call this after decoding the last pixel, before finishing.
+	 *
+	 * @return {@code false} when the ops (or the channel) end before the end of the image, so the image is truncated.
+	 */
+	public boolean hasEnd() {
+		return ensureRemaining(longestOp);
+	}
+
+	public void finishIncremental() {
+		finishDecoding();
 	}
 
 	protected void resetDecoderState() {
 		resetCodecState();
 
 		resetRepeatMultiplier();
-	}
 
-	protected abstract BufferedImage decodeImageImpl(int width, int height, FluidQOIFormat format);
+		lastCode = -1;
+		pendingRepeat = 0;
+	}
 
 	protected int readOpRepeat(int data) {
 		int count = data - opRepeat + 1;
 
-		if (FluidQOIImageDecoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpRepeat(data, count, repeatMultiplier);
 		}
 
@@ -60,4 +267,37 @@ public abstract class FluidQOIDecoder extends FluidQOICodec {
 	protected void resetRepeatMultiplier() {
 		repeatMultiplier = 1;
 	}
+
+	/**
+	 * Makes sure the next op can be read completely, by copying the next window of the buffer, or by refilling the
+	 * buffer from the channel when streaming. This way, ops that straddle two windows or reads don't need special
+	 * handling.
+	 *
+	 * @return {@code false} when fewer than {@code length} bytes are left.
+	 */
+	protected final boolean ensureRemaining(int length) {
+		return limit - cursor >= length || refill(length);
+	}
+
+	private boolean refill(int length) {
+		storeInput();
+
+		if (channel != null && in.remaining() < length) {
+			in.compact();
+			try {
+				while (in.position() < length) {
+					if (channel.read(in) < 0) {
+						break;
+					}
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			} finally {
+				in.flip();
+			}
+		}
+
+		loadInput();
+		return limit - cursor >= length;
+	}
 }
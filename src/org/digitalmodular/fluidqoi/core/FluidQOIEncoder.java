@@ -1,10 +1,18 @@
 package org.digitalmodular.fluidqoi.core;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 import org.digitalmodular.fluidqoi.FluidQOIConfig;
 import org.digitalmodular.fluidqoi.FluidQOIFormat;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIHeader;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIRecentColorSearch;
 
 /**
  * Superclass for all encoders
@@ -13,11 +21,32 @@ import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
  */
 // Created 2022-05-26
 public abstract class FluidQOIEncoder extends FluidQOICodec {
+	/** Number of pixels that are converted at a time by the conversion wrappers of the bulk encode methods */
+	protected static final int CHUNK_LENGTH = 1024;
+
+	/**
+	 * Premultiplied channel values, indexed by {@code alpha << 8 | value}. Rounds exactly like
+	 * {@code (int)(value / 255.0f * alpha + 0.5f)}.
+	 */
+	protected static final byte[] PREMULTIPLY_TABLE = makePremultiplyTable();
+
+	/** The largest array the VM can reliably allocate */
+	private static final int MAX_BUFFER_LENGTH    = Integer.MAX_VALUE - 8;
+	/** The size of the block buffer when streaming, which is written to the channel every time it's full */
+	private static final int STREAM_BUFFER_LENGTH = 65536;
+
 	protected final int longestOp;
 
-	private   ByteBuffer out         = null;
-	protected boolean    firstPixel  = false;
-	protected int        repeatCount = 0;
+	private   ByteBuffer          out           = null;
+	/** The buffer of the caller, or {@code null} when {@link #out} is our own and can grow */
+	private   ByteBuffer          destination   = null;
+	/** The channel of the caller when streaming, which receives {@link #out} every time it's full */
+	private   WritableByteChannel channel       = null;
+	private   long                streamedBytes = 0;
+	protected boolean             firstPixel    = false;
+	protected int                 repeatCount   = 0;
+
+	private final int[] argbChunk = new int[CHUNK_LENGTH];
 
 	protected FluidQOIEncoder(int longestOp, int opRepeat, FluidQOIConfig config) {
 		this.longestOp = longestOp;
@@ -26,31 +55,319 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 		setIndexLength(config.getIndexLength(), opRepeat);
 	}
 
+	private static byte[] makePremultiplyTable() {
+		byte[] table = new byte[256 * 256];
+
+		for (int a = 0; a < 256; a++) {
+			for (int value = 0; value < 256; value++) {
+				table[a << 8 | value] = (byte)(int)(value / 255.0f * a + 0.5f);
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * The largest possible encoded image, including the header and the padding at the end. A buffer of this length
+	 * never overflows.
+	 */
+	public static long getMaxEncodedLength(int width, int height, FluidQOIFormat format) {
+		int longestOp;
+		switch (format.getEncoder()) {
+			case 3:
+				longestOp = FluidQOI888Encoder.LONGEST_OP;
+				break;
+			case 4:
+				longestOp = FluidQOI8888Encoder.LONGEST_OP;
+				break;
+			case 5:
+				longestOp = FluidQOI555Encoder.LONGEST_OP;
+				break;
+			case 6:
+				longestOp = FluidQOI565Encoder.LONGEST_OP;
+				break;
+			default:
+				throw new AssertionError("Unimplemented encoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+
+		// Every pixel takes at most one longest op. Repeats take at most one byte per pixel.
+		return FluidQOIHeader.LENGTH + ((long)width * height + 1) * longestOp;
+	}
+
+	/**
+	 * @return The largest indexLength of the format, which leaves one code for repeats.
+	 */
+	public static int getMaxIndexLength(FluidQOIFormat format) {
+		int opRepeat;
+		switch (format.getEncoder()) {
+			case 3:
+				opRepeat = FluidQOI888Encoder.OP_REPEAT;
+				break;
+			case 4:
+				opRepeat = FluidQOI8888Encoder.OP_REPEAT;
+				break;
+			case 5:
+				opRepeat = FluidQOI555Encoder.OP_REPEAT;
+				break;
+			case 6:
+				opRepeat = FluidQOI565Encoder.OP_REPEAT;
+				break;
+			default:
+				throw new AssertionError("Unimplemented encoder type: " + format.getEncoder() + " (" + format + ')');
+		}
+
+		return 255 - opRepeat;
+	}
+
+	/**
+	 * @return Whether {@link FluidQOIRecentColorSearch#VECTOR} can be used in this JVM, instead of falling back to
+	 * {@link FluidQOIRecentColorSearch#AUTO}.
+	 */
+	public static boolean isVectorSearchAvailable() {
+		return FluidQOIRecentColors.isVectorAvailable();
+	}
+
+	/**
+	 * Starts encoding into a new heap buffer. It starts at half the size of the raw pixels, and grows as needed.
+	 */
 	public void beginEncoding(int width, int height, FluidQOIFormat format) {
+		long expectedLength = FluidQOIHeader.LENGTH + (long)width * height * format.getBytesPerPixel() / 2 + longestOp;
+		long capacity       = Math.min(expectedLength, getMaxEncodedLength(width, height, format));
+
+		resetEncoderState();
+
+		out = ByteBuffer.allocate((int)Math.min(capacity, MAX_BUFFER_LENGTH));
+		destination = null;
+		channel = null;
+
+		writeHeader(width, height, format);
+	}
+
+	/**
+	 * Starts encoding into the buffer of the caller, starting at its position. When the encoding is finished, the
+	 * position is moved past the encoded image.
+	 * <p>
+	 * When the buffer is full, a {@link BufferOverflowException} is thrown and the encoded image is incomplete. A
+	 * buffer with {@link #getMaxEncodedLength(int, int, FluidQOIFormat)} bytes remaining never overflows. To encode
+	 * into a {@code byte[]}, wrap it with {@link ByteBuffer#wrap(byte[])}.
+	 */
+	public void beginEncoding(int width, int height, FluidQOIFormat format, ByteBuffer destination) {
+		resetEncoderState();
+
+		out = destination.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.destination = destination;
+		channel = null;
+
+		writeHeader(width, height, format);
+	}
+
+	/**
+	 * Starts encoding to a (blocking) channel, through a small block buffer, so the memory use doesn't depend on the
+	 * size of the image. Finish with {@link #finishStreaming()}. An {@link java.io.OutputStream} can be wrapped with
+	 * {@link java.nio.channels.Channels#newChannel(java.io.OutputStream)}.
+	 * <p>
+	 * The encode methods can't throw {@link IOException}, so errors of the channel are thrown as
+	 * {@link UncheckedIOException}.
+	 */
+	public void beginEncoding(int width, int height, FluidQOIFormat format, WritableByteChannel channel) {
 		resetEncoderState();
 
-		out = ByteBuffer.allocate(width * height * longestOp + FluidQOIImageEncoder.HEADER_LENGTH);
+		if (out == null || out.capacity() != STREAM_BUFFER_LENGTH || destination != null) {
+			out = ByteBuffer.allocate(STREAM_BUFFER_LENGTH);
+		} else {
+			out.clear();
+		}
+
+		destination = null;
+		this.channel = channel;
+		streamedBytes = 0;
 
 		writeHeader(width, height, format);
 	}
 
-	public abstract void encodePixel(byte r, byte g, byte b, byte a);
+	/**
+	 * Encodes a single pixel. This is a convenience method with a lot of overhead per pixel. Prefer one of the bulk
+	 * encode methods, like {@link #encodePixels(int[], int, int)}.
+	 */
+	public void encodePixel(byte r, byte g, byte b, byte a) {
+		argbChunk[0] = (a & 0xFF) << 24 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+		encodePixels(argbChunk, 0, 1);
+	}
+
+	/**
+	 * Encodes consecutive pixels that are packed as non-premultiplied {@code 0xAARRGGBB} (like
+	 * {@code TYPE_INT_ARGB}). This is the fastest way to encode pixels, as this is the main loop of every encoder.
+	 * <p>
+	 * Pixels don't have to be encoded in one call. For example, call this once per row.
+	 */
+	public abstract void encodePixels(int[] argb, int offset, int length);
+
+	/**
+	 * Encodes consecutive pixels that are stored as interleaved byte samples.
+	 *
+	 * @param offset      The index of the first sample of the first pixel
+	 * @param length      The number of pixels
+	 * @param pixelStride The number of bytes from one pixel to the next
+	 * @param bandOffsets The offsets of red, green, blue and (optionally) alpha within a pixel. When there are only
+	 *                    three offsets, alpha is 255.
+	 */
+	public void encodePixels(byte[] samples, int offset, int length, int pixelStride, int[] bandOffsets) {
+		int     offsetR  = bandOffsets[0];
+		int     offsetG  = bandOffsets[1];
+		int     offsetB  = bandOffsets[2];
+		boolean hasAlpha = bandOffsets.length > 3;
+		int     offsetA  = hasAlpha ? bandOffsets[3] : 0;
+
+		while (length > 0) {
+			int chunkLength = Math.min(length, CHUNK_LENGTH);
+
+			int p = offset;
+			for (int i = 0; i < chunkLength; i++) {
+				int a = hasAlpha ? samples[p + offsetA] & 0xFF : 0xFF;
+				argbChunk[i] = a << 24 |
+				               (samples[p + offsetR] & 0xFF) << 16 |
+				               (samples[p + offsetG] & 0xFF) << 8 |
+				               samples[p + offsetB] & 0xFF;
+				p += pixelStride;
+			}
+
+			encodePixels(argbChunk, 0, chunkLength);
+
+			offset = p;
+			length -= chunkLength;
+		}
+	}
+
+	/**
+	 * @return The number of bytes encoded so far, including the header. A run that hasn't ended yet isn't counted.
+	 */
+	public long getEncodedLength() {
+		if (channel != null) {
+			return streamedBytes + out.position();
+		} else if (destination != null) {
+			return out.position() - destination.position();
+		} else {
+			return out.position();
+		}
+	}
 
+	/**
+	 * @return A ByteBuffer containing exactly the encoded image, ready to be read. This is a view of the encoding
+	 * buffer (the buffer of the caller, or a heap buffer with some spare capacity), so nothing is copied.
+	 */
 	public ByteBuffer finishEncoding() {
+		if (channel != null) {
+			throw new IllegalStateException("Encoding to a channel has to be finished with finishStreaming()");
+		}
+
+		writeEnd();
+
+		ByteBuffer returnValue;
+		if (destination == null) {
+			returnValue = out.flip();
+		} else {
+			int start = destination.position();
+			destination.position(out.position());
+			returnValue = out.flip().position(start).slice();
+		}
+
+		out = null;
+		destination = null;
+		return returnValue;
+	}
+
+	/**
+	 * Like {@link #finishEncoding()}, but returns an array of exactly the length of the encoded image. The encoded
+	 * image is only copied when the encoding buffer was larger.
+	 */
+	public byte[] finishEncodingToArray() {
+		ByteBuffer encoded = finishEncoding();
+
+		if (encoded.hasArray() && encoded.arrayOffset() == 0 && encoded.array().length == encoded.remaining()) {
+			return encoded.array();
+		}
+
+		byte[] array = new byte[encoded.remaining()];
+		encoded.get(array);
+		return array;
+	}
+
+	/**
+	 * Finishes encoding to the channel given to {@link #beginEncoding(int, int, FluidQOIFormat, WritableByteChannel)},
+	 * and writes the rest of the encoded image to it. The channel is not closed.
+	 *
+	 * @return The length of the encoded image.
+	 */
+	public long finishStreaming() throws IOException {
+		if (channel == null) {
+			throw new IllegalStateException("Not encoding to a channel");
+		}
+
+		try {
+			writeEnd();
+			flush();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			// Keep the block buffer for the next image
+			out.clear();
+			channel = null;
+		}
+
+		return streamedBytes;
+	}
+
+	private void writeEnd() {
 		if (repeatCount > 0) {
-			writeOpRepeat();
+			writeOpRepeat(repeatCount);
+			repeatCount = 0;
 		}
 
+		ensureRemaining(longestOp);
 		for (int i = 0; i < longestOp; i++) {
 			out.put((byte)0);
 		}
 
 		totalStatistics.add(statistics);
+	}
 
-		out.flip();
-		ByteBuffer returnValue = out;
-		out = null;
-		return returnValue;
+	/**
+	 * Finds the rest of a run with wide compares ({@link Arrays#mismatch} is vectorized by the JIT), so a long run
+	 * costs the encoder one iteration instead of one per pixel.
+	 *
+	 * @return The number of pixels after {@code pixels[start]}, up to {@code end}, that are equal to it.
+	 */
+	protected static int countRepeats(int[] pixels, int start, int end) {
+		if (start + 1 >= end || pixels[start + 1] != pixels[start]) {
+			return 0;
+		}
+
+		int mismatch = Arrays.mismatch(pixels, start + 1, end, pixels, start, end - 1);
+		return mismatch < 0 ? end - start - 1 : mismatch;
+	}
+
+	/**
+	 * @see #countRepeats(int[], int, int)
+	 */
+	protected static int countRepeats(short[] pixels, int start, int end) {
+		if (start + 1 >= end || pixels[start + 1] != pixels[start]) {
+			return 0;
+		}
+
+		int mismatch = Arrays.mismatch(pixels, start + 1, end, pixels, start, end - 1);
+		return mismatch < 0 ? end - start - 1 : mismatch;
+	}
+
+	/**
+	 * Tests a delta against the signed range of an op field without branching. OR-ing the results of all fields of an
+	 * op tests whether the op fits with a single comparison, instead of two comparisons per field. With noisy images,
+	 * those comparisons are hard to predict, so it's mostly their number that counts.
+	 *
+	 * @param bits The width of the field, so the range is {@code [-2^(bits-1), 2^(bits-1))}
+	 * @return Zero when the delta is in range.
+	 */
+	protected static int outOfRange(int delta, int bits) {
+		return (delta + (1 << bits - 1)) >>> bits;
 	}
 
 	protected void resetEncoderState() {
@@ -60,63 +377,113 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 		repeatCount = 0;
 	}
 
+	/**
+	 * Makes sure the next {@code length} bytes fit, by growing our own buffer or, when streaming, by writing it to the
+	 * channel. The buffer of the caller can't grow.
+	 */
+	private void ensureRemaining(int length) {
+		if (out.remaining() < length) {
+			grow(length);
+		}
+	}
+
+	private void grow(int length) {
+		if (destination != null) {
+			throw new BufferOverflowException();
+		} else if (channel != null) {
+			try {
+				flush();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+
+			return;
+		}
+
+		long required = (long)out.position() + length;
+		if (required > MAX_BUFFER_LENGTH) {
+			throw new OutOfMemoryError("Encoded image is too large: " + required + " bytes");
+		}
+
+		int        capacity = (int)Math.min(Math.max(required, out.capacity() * 2L), MAX_BUFFER_LENGTH);
+		ByteBuffer grown    = ByteBuffer.allocate(capacity);
+		out.flip();
+		grown.put(out);
+		out = grown;
+	}
+
+	private void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			streamedBytes += channel.write(out);
+		}
+
+		out.clear();
+	}
+
 	private void writeHeader(int width, int height, FluidQOIFormat format) {
-		out.putInt(FluidQOIImageEncoder.FLUID_QOI_MAGIC);
+		ensureRemaining(FluidQOIHeader.LENGTH);
+		out.putInt(FluidQOIHeader.getMagic(opLayout));
 		out.putInt(width);
 		out.putInt(height);
 		out.put(format.code());
 		out.put((byte)indexLength);
-		out.put((byte)0x00); // Format-dependent extension 1 (unused here)
+		out.put((byte)opLayout.getCode()); // Format-dependent extension 1
 		out.put((byte)0x00); // Format-dependent extension 2 (unused here)
 	}
 
 	protected void writeOpIndex(int index) {
 		int data = opIndex + index;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpIndex(data, index);
 		}
 
+		ensureRemaining(1);
 		out.put((byte)data);
 	}
 
-	protected void writeOpRepeat() {
-		repeatCount--;
+	/**
+	 * Writes the bijective representation of the repeat count, which takes one OP_REPEAT code per 'digit'.
+	 */
+	protected void writeOpRepeat(int count) {
+		int remaining  = count - 1;
 		int multiplier = 1;
 
 		do {
-			int countMinusOne = repeatCount % repeatLength;
+			int countMinusOne = remaining % repeatLength;
 			int data          = opRepeat + countMinusOne;
 
-			if (FluidQOIImageEncoder.debugging) {
+			if (FluidQOIRawEncoder.debugging) {
 				statistics.recordOpRepeat(data, countMinusOne + 1, multiplier);
 				multiplier *= repeatLength;
 			}
 
+			ensureRemaining(1);
 			out.put((byte)data);
-			repeatCount = ((repeatCount - countMinusOne) / repeatLength) - 1;
-		} while (repeatCount >= 0);
-
-		repeatCount = 0;
+			remaining = ((remaining - countMinusOne) / repeatLength) - 1;
+		} while (remaining >= 0);
 	}
 
 	protected void writeOpLuma222(int dy, int du, int dv) {
 		int data = opLuma222 + (((dy & 0b11) << 4) | ((du & 0b11) << 2) | (dv & 0b11)) - 1;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpLuma222(data, dy, du, dv);
 		}
 
+		ensureRemaining(1);
 		out.put((byte)data);
 	}
 
 	protected void writeOpLuma322(int dy, int du, int dv) {
 		int data = opLuma322 + (((dy & 0b111) << 4) | ((du & 0b11) << 2) | (dv & 0b11)) - 1;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpLuma322(data, dy, du, dv);
 		}
 
+		ensureRemaining(1);
 		out.put((byte)data);
 	}
 
@@ -124,10 +491,11 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 		int data1 = opLuma433 + ((dy & 0b1100) >> 2);
 		int data2 = ((dy & 0b11) << 6) | ((du & 0b111) << 3) | (dv & 0b111);
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpLuma433(data1, data2, dy, du, dv);
 		}
 
+		ensureRemaining(2);
 		out.put((byte)data1);
 		out.put((byte)data2);
 	}
@@ -136,23 +504,25 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 		int data2 = ((dy & 0b1111) << 4) | (du & 0b1111);
 		int data3 = ((dv & 0b1111) << 4) | (da & 0b1111);
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpLuma4444(opLuma4444, data2, data3, dy, du, dv, da);
 		}
 
+		ensureRemaining(3);
 		out.put((byte)opLuma4444);
 		out.put((byte)data2);
 		out.put((byte)data3);
 	}
 
 	protected void writeOpLuma644(int dy, int du, int dv) {
-		int data1 = opLuma644 + dy & 0b111111;
+		int data1 = opLuma644 + (dy & 0b111111);
 		int data2 = ((du & 0b1111) << 4) | (dv & 0b1111);
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpLuma644(data1, data2, dy, du, dv);
 		}
 
+		ensureRemaining(2);
 		out.put((byte)data1);
 		out.put((byte)data2);
 	}
@@ -161,10 +531,11 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 		int data1 = opRGB555 + (rgb >> 8);
 		int data2 = rgb & 0xFF;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpRGB555(data1, data2, rgb);
 		}
 
+		ensureRemaining(2);
 		out.put((byte)data1);
 		out.put((byte)data2);
 	}
@@ -173,10 +544,11 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 		int data2 = rgb >> 8;
 		int data3 = rgb & 0xFF;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpRGB565(opRGB565, data2, data3, rgb);
 		}
 
+		ensureRemaining(3);
 		out.put((byte)opRGB565);
 		out.put((byte)data2);
 		out.put((byte)data3);
@@ -185,10 +557,11 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 	protected void writeOpMask3(int mask, byte r, byte g, byte b) {
 		int data1 = opMask3 + mask;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpMask3(data1, mask, r, g, b);
 		}
 
+		ensureRemaining(4);
 		out.put((byte)data1);
 
 		if ((mask & 0b100) != 0) {
@@ -207,10 +580,11 @@ public abstract class FluidQOIEncoder extends FluidQOICodec {
 	protected void writeOpMask4(int mask, byte r, byte g, byte b, byte a) {
 		int data1 = opMask4 + mask;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawEncoder.debugging) {
 			statistics.recordOpMask4(data1, mask, r, g, b, a);
 		}
 
+		ensureRemaining(5);
 		out.put((byte)data1);
 
 		if ((mask & 0b1000) != 0) {
@@ -0,0 +1,132 @@
+package org.digitalmodular.fluidqoi.core;
+
+import java.util.Arrays;
+
+/**
+ * Recent colors with a hash index for constant-time lookups.
+ * <p>
+ * The index maps every color to the lowest slot that holds it, which is what a linear scan of the list would return.
+ * The list can only contain the same color more than once right after a reset (every slot holds the reset color), so
+ * the rare case that the lowest slot of a duplicated color is replaced is handled with a scan.
+ * <p>
+ * Probing loops mispredict a lot, so the table is kept at most 1/8 full, which makes nearly every lookup hit (or miss)
+ * at the first bucket.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+final class FluidQOIHashedRecentColors extends FluidQOIRecentColors {
+	// Open addressing hash table with linear probing
+	private final int   hashMask;
+	private final int   hashShift;
+	private final int[] keys;
+	/** The lowest slot that holds the key, or -1 for an empty bucket */
+	private final int[] lowestSlots;
+	/** The number of slots that hold the key */
+	private final int[] counts;
+
+	FluidQOIHashedRecentColors(int length) {
+		super(length, length);
+
+		int capacity = Integer.highestOneBit(length * 8 - 1) << 1;
+		hashMask = capacity - 1;
+		hashShift = Integer.numberOfLeadingZeros(hashMask);
+		keys = new int[capacity];
+		lowestSlots = new int[capacity];
+		counts = new int[capacity];
+	}
+
+	@Override
+	void reset(int color) {
+		super.reset(color);
+
+		Arrays.fill(lowestSlots, -1);
+
+		int bucket = findBucket(color);
+		keys[bucket] = color;
+		lowestSlots[bucket] = 0;
+		counts[bucket] = length;
+	}
+
+	@Override
+	int find(int color) {
+		return lowestSlots[findBucket(color)];
+	}
+
+	@Override
+	void set(int slot, int color) {
+		int oldColor = colors[slot];
+		if (oldColor == color) {
+			return;
+		}
+
+		int bucket = findBucket(oldColor);
+		if (--counts[bucket] == 0) {
+			removeBucket(bucket);
+		} else if (lowestSlots[bucket] == slot) {
+			lowestSlots[bucket] = findLowestSlot(oldColor, slot);
+		}
+
+		colors[slot] = color;
+
+		bucket = findBucket(color);
+		if (lowestSlots[bucket] < 0) {
+			keys[bucket] = color;
+			lowestSlots[bucket] = slot;
+			counts[bucket] = 1;
+		} else {
+			lowestSlots[bucket] = Math.min(lowestSlots[bucket], slot);
+			counts[bucket]++;
+		}
+	}
+
+	/**
+	 * @return The bucket that holds the color, or the empty bucket where it would be inserted.
+	 */
+	private int findBucket(int color) {
+		int bucket = hash(color);
+		while (lowestSlots[bucket] >= 0 && keys[bucket] != color) {
+			bucket = (bucket + 1) & hashMask;
+		}
+
+		return bucket;
+	}
+
+	private int hash(int color) {
+		return color * 0x9E3779B9 >>> hashShift;
+	}
+
+	private int findLowestSlot(int color, int excludedSlot) {
+		for (int slot = 0; slot < length; slot++) {
+			if (colors[slot] == color && slot != excludedSlot) {
+				return slot;
+			}
+		}
+
+		throw new AssertionError("Color count out of sync: " + Integer.toHexString(color));
+	}
+
+	/**
+	 * Backward-shift deletion, which keeps every probe sequence intact without tombstones.
+	 */
+	private void removeBucket(int hole) {
+		int bucket = hole;
+		while (true) {
+			bucket = (bucket + 1) & hashMask;
+			if (lowestSlots[bucket] < 0) {
+				break;
+			}
+
+			// Move the entry into the hole, unless its home bucket lies between the hole and its current bucket.
+			int home = hash(keys[bucket]);
+			if (((bucket - home) & hashMask) >= ((bucket - hole) & hashMask)) {
+				keys[hole] = keys[bucket];
+				lowestSlots[hole] = lowestSlots[bucket];
+				counts[hole] = counts[bucket];
+				hole = bucket;
+			}
+		}
+
+		lowestSlots[hole] = -1;
+	}
+}
@@ -1,73 +1,106 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
-import org.digitalmodular.fluidqoi.FluidQOIFormat;
-import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIChannelOrder;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-29
 public abstract class FluidQOIInterleavedByteDecoder extends FluidQOIDecoder {
-	protected byte     lastR            = 0;
-	protected byte     lastG            = 0;
-	protected byte     lastB            = 0;
-	protected byte     lastA            = (byte)255;
-	private   byte[][] recentColorsList = null;
-
-	protected FluidQOIInterleavedByteDecoder(int opRepeat) {
-		super(opRepeat);
-	}
+	/** Longer runs are copied with {@link #fillRun}, after writing this many pixels one at a time */
+	protected static final int RUN_FILL_THRESHOLD = 16;
 
-	@Override
-	protected BufferedImage decodeImageImpl(int width, int height, FluidQOIFormat format) {
-		resetDecoderState();
+	/** {@code 0xAARRGGBB} */
+	protected int   lastColor    = 0xFF000000;
+	/** {@code 0xAARRGGBB}. Kept between decodes, when the indexLength stays the same */
+	private   int[] recentColors = null;
+
+	protected FluidQOIInterleavedByteDecoder(int longestOp, int opRepeat) {
+		super(longestOp, opRepeat);
+	}
 
-		BufferedImage image  = createImage(width, height);
-		byte[]        pixels = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+	/**
+	 * Decodes the ops into interleaved byte samples, in the order of {@link #getChannelOrder()}.
+	 *
+	 * @param in     The ops, starting right after the header
+	 * @param pixels The destination, of which the length determines the number of pixels
+	 */
+	public void decode(ByteBuffer in, int indexLength, byte[] pixels) {
+		beginDecoding(in, indexLength);
+		decodeMore(pixels, 0, pixels.length);
+		finishDecoding();
+	}
 
-		decodeImageImplImpl(pixels);
+	/**
+	 * Decodes the ops while reading them from a (blocking) channel. The channel may be read past the end of the image.
+	 * Errors of the channel are thrown as {@link java.io.UncheckedIOException}.
+	 *
+	 * @param buffer The buffer that is refilled from the channel, ready to be read, which may already contain the first
+	 *               ops (for example after reading the header from it)
+	 * @param pixels The destination, of which the length determines the number of pixels
+	 */
+	public void decode(ReadableByteChannel channel, ByteBuffer buffer, int indexLength, byte[] pixels) {
+		beginDecoding(channel, buffer, indexLength);
+		decodeMore(pixels, 0, pixels.length);
+		finishDecoding();
+	}
 
-		return image;
+	/**
+	 * Decodes the next pixels, after {@link #beginIncremental}. This stops when the range is full, or when the ops run
+	 * out. A repeat that doesn't fit in the range continues in the next call.
+	 *
+	 * @param offset The start of the range, which doesn't have to follow the range of the previous call
+	 * @param length The length of the range, which has to be a whole number of pixels
+	 * @return The number of array elements written.
+	 */
+	public int decodeMore(byte[] pixels, int offset, int length) {
+		int end = decodeImageImplImpl(pixels, offset, offset + length);
+		storeInput();
+		return end - offset;
 	}
 
-	protected abstract BufferedImage createImage(int width, int height);
+	/**
+	 * @return The order of the samples written by {@link #decode(ByteBuffer, int, byte[])}.
+	 */
+	public abstract FluidQOIChannelOrder getChannelOrder();
 
 	@Override
 	protected void resetDecoderState() {
 		super.resetDecoderState();
 
-		lastR = 0;
-		lastG = 0;
-		lastB = 0;
-		lastA = (byte)255;
-		recentColorsList = new byte[indexLength][4];
+		lastColor = 0xFF000000;
+		if (recentColors == null || recentColors.length != indexLength) {
+			recentColors = new int[indexLength];
+		} else {
+			Arrays.fill(recentColors, 0);
+		}
 	}
 
-	protected abstract void decodeImageImplImpl(byte[] pixels);
+	/**
+	 * @param p   The start of the range to decode into
+	 * @param end The end of the range, after a whole number of pixels
+	 * @return The position after the last pixel written, which is {@code end} unless the ops ran out.
+	 */
+	protected abstract int decodeImageImplImpl(byte[] pixels, int p, int end);
 
 	protected void recordRecentColor() {
-		recentColorsList[recentColorsIndex][0] = lastR;
-		recentColorsList[recentColorsIndex][1] = lastG;
-		recentColorsList[recentColorsIndex][2] = lastB;
-		recentColorsList[recentColorsIndex][3] = lastA;
+		recentColors[recentColorsIndex] = lastColor;
 		recentColorsIndex = (recentColorsIndex + 1) % indexLength;
 	}
 
 	protected void readOpIndex(int data) {
 		int index = data - opIndex;
 
-		if (FluidQOIImageDecoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpIndex(data, index);
 		}
 
-		byte[] c = recentColorsList[index];
-		lastR = c[0];
-		lastG = c[1];
-		lastB = c[2];
-		lastA = c[3];
+		lastColor = recentColors[index];
 	}
 
 	protected void readOpLuma222(int data) {
@@ -77,92 +110,118 @@ public abstract class FluidQOIInterleavedByteDecoder extends FluidQOIDecoder {
 		int du = ((value & 0b001100) << 28) >> 30;
 		int dv = ((value & 0b000011) << 30) >> 30;
 
-		if (FluidQOIImageDecoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpLuma222(data, dy, du, dv);
 		}
 
-		lastR += dy + du;
-		lastG += dy;
-		lastB += dy + dv;
+		lastColor = addBytes(lastColor, packDeltas(dy + du, dy, dy + dv, 0));
 	}
 
 	protected void readOpLuma644(int data1) {
 		int value = data1 - opLuma644;
-		int data2 = in.get();
+		int data2 = ops[cursor++];
 
 		int dy = ((value & 0b111111) << 26) >> 26;
 		int du = ((data2 & 0b11110000) << 24) >> 28;
 		int dv = ((data2 & 0b00001111) << 28) >> 28;
 
-		if (FluidQOIImageDecoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpLuma644(data1, data2, dy, du, dv);
 		}
 
-		lastR += dy + du;
-		lastG += dy;
-		lastB += dy + dv;
+		lastColor = addBytes(lastColor, packDeltas(dy + du, dy, dy + dv, 0));
 	}
 
 	protected void readOpLuma4444(int data1) {
-		byte data2 = in.get();
-		byte data3 = in.get();
+		byte data2 = ops[cursor++];
+		byte data3 = ops[cursor++];
 
 		int dy = ((data2 & 0b11110000) << 24) >> 28;
 		int du = ((data2 & 0b00001111) << 28) >> 28;
 		int dv = ((data3 & 0b11110000) << 24) >> 28;
 		int da = ((data3 & 0b00001111) << 28) >> 28;
 
-		if (FluidQOIImageDecoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpLuma4444(data1, data2, data3, dy, du, dv, da);
 		}
 
-		lastR += dy + du;
-		lastG += dy;
-		lastB += dy + dv;
-		lastA += da;
+		lastColor = addBytes(lastColor, packDeltas(dy + du, dy, dy + dv, da));
 	}
 
 	protected void readOpMask3(int data) {
 		int mask = data - opMask3;
 
+		int color = lastColor;
 		if ((mask & 0b100) != 0) {
-			lastR = in.get();
+			color = color & 0xFF00FFFF | (ops[cursor++] & 0xFF) << 16;
 		}
 
 		if ((mask & 0b010) != 0) {
-			lastG = in.get();
+			color = color & 0xFFFF00FF | (ops[cursor++] & 0xFF) << 8;
 		}
 
 		if ((mask & 0b001) != 0) {
-			lastB = in.get();
+			color = color & 0xFFFFFF00 | ops[cursor++] & 0xFF;
 		}
 
-		if (FluidQOIImageDecoder.debugging) {
-			statistics.recordOpMask3(data, mask, lastR, lastG, lastB);
+		lastColor = color;
+
+		if (FluidQOIRawDecoder.debugging) {
+			statistics.recordOpMask3(data, mask, (byte)(color >> 16), (byte)(color >> 8), (byte)color);
 		}
 	}
 
 	protected void readOpMask4(int data) {
 		int mask = data - opMask4;
 
+		int color = lastColor;
 		if ((mask & 0b1000) != 0) {
-			lastR = in.get();
+			color = color & 0xFF00FFFF | (ops[cursor++] & 0xFF) << 16;
 		}
 
 		if ((mask & 0b0100) != 0) {
-			lastG = in.get();
+			color = color & 0xFFFF00FF | (ops[cursor++] & 0xFF) << 8;
 		}
 
 		if ((mask & 0b0010) != 0) {
-			lastB = in.get();
+			color = color & 0xFFFFFF00 | ops[cursor++] & 0xFF;
 		}
 
 		if ((mask & 0b0001) != 0) {
-			lastA = in.get();
+			color = color & 0x00FFFFFF | ops[cursor++] << 24;
 		}
 
-		if (FluidQOIImageDecoder.debugging) {
-			statistics.recordOpMask4(data, mask, lastR, lastG, lastB, lastA);
+		lastColor = color;
+
+		if (FluidQOIRawDecoder.debugging) {
+			statistics.recordOpMask4(data, mask,
+			                         (byte)(color >> 16), (byte)(color >> 8), (byte)color, (byte)(color >> 24));
+		}
+	}
+
+	/**
+	 * Repeats the samples at the start of a run until the run is complete, by copying ever larger blocks with
+	 * {@link System#arraycopy}. For long runs, this is much faster than writing one byte at a time.
+	 *
+	 * @param start  The start of the run
+	 * @param filled The number of bytes that are already written, a whole number of pixels
+	 * @param length The length of the run in bytes
+	 * @return The position after the run.
+	 */
+	protected static int fillRun(byte[] pixels, int start, int filled, int length) {
+		while (filled < length) {
+			int blockLength = Math.min(filled, length - filled);
+			System.arraycopy(pixels, start, pixels, start + filled, blockLength);
+			filled += blockLength;
 		}
+
+		return start + length;
+	}
+
+	/**
+	 * @return The deltas of the channels, each wrapped to 8 bits, packed like {@code 0xAARRGGBB}.
+	 */
+	static int packDeltas(int dr, int dg, int db, int da) {
+		return da << 24 | (dr & 0xFF) << 16 | (dg & 0xFF) << 8 | db & 0xFF;
 	}
 }
@@ -0,0 +1,24 @@
+package org.digitalmodular.fluidqoi.core;
+
+/**
+ * Recent colors that are simply scanned, which is the fastest for short lists.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+final class FluidQOILinearRecentColors extends FluidQOIRecentColors {
+	FluidQOILinearRecentColors(int length) {
+		super(length, length);
+	}
+
+	@Override
+	int find(int color) {
+		for (int slot = 0; slot < length; slot++) {
+			if (colors[slot] == color) {
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+}
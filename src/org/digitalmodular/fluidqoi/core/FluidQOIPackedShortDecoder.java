@@ -1,61 +1,96 @@
 package org.digitalmodular.fluidqoi.core;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferUShort;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
-import org.digitalmodular.fluidqoi.FluidQOIFormat;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
 
 /**
  * @author Mark Jeronimus
  */
 // Created 2022-05-29
 public abstract class FluidQOIPackedShortDecoder extends FluidQOIDecoder {
-	protected short   lastRGB           = 0;
-	private   short[] recentColorsList  = null;
-	private   int     recentColorsIndex = 0;
+	protected short   lastRGB      = 0;
+	/** Kept between decodes, when the indexLength stays the same */
+	private   short[] recentColors = null;
 
-	protected FluidQOIPackedShortDecoder(int opRepeat) {
-		super(opRepeat);
+	protected FluidQOIPackedShortDecoder(int longestOp, int opRepeat) {
+		super(longestOp, opRepeat);
 	}
 
-	@Override
-	protected BufferedImage decodeImageImpl(int width, int height, FluidQOIFormat format) {
-		resetDecoderState();
-
-		BufferedImage image  = createImage(width, height);
-		short[]       pixels = ((DataBufferUShort)image.getRaster().getDataBuffer()).getData();
-
-		decodeImageImplImpl(pixels);
+	/**
+	 * Decodes the ops into packed shorts, in the same bit layout as the {@code USHORT} image type of the format.
+	 *
+	 * @param in     The ops, starting right after the header
+	 * @param pixels The destination, of which the length determines the number of pixels
+	 */
+	public void decode(ByteBuffer in, int indexLength, short[] pixels) {
+		beginDecoding(in, indexLength);
+		decodeMore(pixels, 0, pixels.length);
+		finishDecoding();
+	}
 
-		return image;
+	/**
+	 * Decodes the ops while reading them from a (blocking) channel. The channel may be read past the end of the image.
+	 * Errors of the channel are thrown as {@link java.io.UncheckedIOException}.
+	 *
+	 * @param buffer The buffer that is refilled from the channel, ready to be read, which may already contain the first
+	 *               ops (for example after reading the header from it)
+	 * @param pixels The destination, of which the length determines the number of pixels
+	 */
+	public void decode(ReadableByteChannel channel, ByteBuffer buffer, int indexLength, short[] pixels) {
+		beginDecoding(channel, buffer, indexLength);
+		decodeMore(pixels, 0, pixels.length);
+		finishDecoding();
 	}
 
-	protected abstract BufferedImage createImage(int width, int height);
+	/**
+	 * Decodes the next pixels, after {@link #beginIncremental}. This stops when the range is full, or when the ops run
+	 * out. A repeat that doesn't fit in the range continues in the next call.
+	 *
+	 * @param offset The start of the range, which doesn't have to follow the range of the previous call
+	 * @param length The length of the range, which has to be a whole number of pixels
+	 * @return The number of array elements written.
+	 */
+	public int decodeMore(short[] pixels, int offset, int length) {
+		int end = decodeImageImplImpl(pixels, offset, offset + length);
+		storeInput();
+		return end - offset;
+	}
 
 	@Override
 	protected void resetDecoderState() {
 		super.resetDecoderState();
 
 		lastRGB = 0;
-		recentColorsList = new short[indexLength];
+		if (recentColors == null || recentColors.length != indexLength) {
+			recentColors = new short[indexLength];
+		} else {
+			Arrays.fill(recentColors, (short)0);
+		}
 	}
 
-	protected abstract void decodeImageImplImpl(short[] pixels);
+	/**
+	 * @param p   The start of the range to decode into
+	 * @param end The end of the range, after a whole number of pixels
+	 * @return The position after the last pixel written, which is {@code end} unless the ops ran out.
+	 */
+	protected abstract int decodeImageImplImpl(short[] pixels, int p, int end);
 
 	protected void recordRecentColor() {
-		recentColorsList[recentColorsIndex] = lastRGB;
+		recentColors[recentColorsIndex] = lastRGB;
 		recentColorsIndex = (recentColorsIndex + 1) % indexLength;
 	}
 
 	protected void readOpIndex(int data) {
 		int index = data - opIndex;
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpIndex(data, index);
 		}
 
-		lastRGB = recentColorsList[index];
+		lastRGB = recentColors[index];
 	}
 
 	protected void readOpLuma222(int data) {
@@ -65,7 +100,7 @@ public abstract class FluidQOIPackedShortDecoder extends FluidQOIDecoder {
 		int du = (value & 0b001100) << 28 >> 3; // 5 bits, left-aligned
 		int dv = (value & 0b000011) << 30 >> 3; // 5 bits, left-aligned
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpLuma222(data, dy >> 27, du >> 27, dv >> 27);
 		}
 
@@ -85,7 +120,7 @@ public abstract class FluidQOIPackedShortDecoder extends FluidQOIDecoder {
 		int du = (value & 0b0001100) << 28 >> 3; // 5 bits, left-aligned
 		int dv = (value & 0b0000011) << 30 >> 3; // 5 bits, left-aligned
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpLuma322(data, dy >> 26, du >> 27, dv >> 27);
 		}
 
@@ -100,13 +135,13 @@ public abstract class FluidQOIPackedShortDecoder extends FluidQOIDecoder {
 
 	protected void readOpLuma433(int data1) {
 		int value = data1 - opLuma433;
-		int data2 = in.get();
+		int data2 = ops[cursor++];
 
 		int dy = ((((value & 0b00000011) << 30) | (data2 & 0b11000000) << 22)) >> 2; // 6 bits, left-aligned
 		int du = ((data2 & 0b00111000) << 26) >> 2;                                  // 5 bits, left-aligned
 		int dv = ((data2 & 0b00000111) << 29) >> 2;                                  // 5 bits, left-aligned
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpLuma433(data1, data2, dy >> 26, du >> 27, dv >> 27);
 		}
 
@@ -121,22 +156,22 @@ public abstract class FluidQOIPackedShortDecoder extends FluidQOIDecoder {
 
 	protected void readOpRGB555(int data1) {
 		int value = data1 - opRGB555;
-		int data2 = in.get() & 0xFF;
+		int data2 = ops[cursor++] & 0xFF;
 
 		lastRGB = (short)((value << 8) | data2);
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpRGB555(data1, data2, lastRGB);
 		}
 	}
 
 	protected void readOpRGB565() {
-		int data2 = in.get() & 0xFF;
-		int data3 = in.get() & 0xFF;
+		int data2 = ops[cursor++] & 0xFF;
+		int data3 = ops[cursor++] & 0xFF;
 
 		lastRGB = (short)((data2 << 8) | data3);
 
-		if (FluidQOIImageEncoder.debugging) {
+		if (FluidQOIRawDecoder.debugging) {
 			statistics.recordOpRGB565(opRGB565, data2, data3, lastRGB);
 		}
 	}
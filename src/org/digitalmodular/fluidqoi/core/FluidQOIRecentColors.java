@@ -0,0 +1,99 @@
+package org.digitalmodular.fluidqoi.core;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+import org.digitalmodular.fluidqoi.FluidQOIRecentColorSearch;
+
+/**
+ * The list of recent colors of an encoder, with a strategy to search it.
+ * <p>
+ * A color is any int, so encoders can pack their pixels in whatever way is convenient. Searching always returns the
+ * lowest slot that holds the color, which is what the original linear scan returned, so every strategy produces the
+ * same output.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+abstract class FluidQOIRecentColors {
+	/** With {@link FluidQOIRecentColorSearch#AUTO}, lists up to this length are scanned instead of hashed */
+	static final int LINEAR_SCAN_LIMIT = 16;
+
+	private static final String VECTOR_CLASS_NAME = "org.digitalmodular.fluidqoi.core.FluidQOIVectorRecentColors";
+
+	protected final int   length;
+	/** At least {@link #length} long. Implementations may pad the array */
+	protected final int[] colors;
+
+	protected FluidQOIRecentColors(int length, int arrayLength) {
+		this.length = length;
+		colors = new int[arrayLength];
+	}
+
+	/**
+	 * @param search When {@link FluidQOIRecentColorSearch#VECTOR} is not available, {@link FluidQOIRecentColorSearch#AUTO}
+	 *               is used instead.
+	 */
+	static FluidQOIRecentColors create(int length, FluidQOIRecentColorSearch search) {
+		switch (search) {
+			case LINEAR:
+				return new FluidQOILinearRecentColors(length);
+			case HASHED:
+				return new FluidQOIHashedRecentColors(length);
+			case VECTOR:
+				if (VectorSupport.CONSTRUCTOR != null) {
+					try {
+						return VectorSupport.CONSTRUCTOR.newInstance(length);
+					} catch (ReflectiveOperationException ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+				return create(length, FluidQOIRecentColorSearch.AUTO);
+			case AUTO:
+				return length <= LINEAR_SCAN_LIMIT ?
+				       new FluidQOILinearRecentColors(length) :
+				       new FluidQOIHashedRecentColors(length);
+			default:
+				throw new AssertionError("Unimplemented search: " + search);
+		}
+	}
+
+	/**
+	 * Fills every slot with the same color.
+	 */
+	void reset(int color) {
+		Arrays.fill(colors, 0, length, color);
+	}
+
+	/**
+	 * @return The lowest slot that holds the color, or -1 when it's not in the list.
+	 */
+	abstract int find(int color);
+
+	void set(int slot, int color) {
+		colors[slot] = color;
+	}
+
+	static boolean isVectorAvailable() {
+		return VectorSupport.CONSTRUCTOR != null;
+	}
+
+	/**
+	 * Loads the Vector API implementation only when it's first requested, and only once. It lives in a separate
+	 * source root, because it needs {@code --add-modules jdk.incubator.vector} to compile and to run.
+	 */
+	private static final class VectorSupport {
+		static final Constructor<? extends FluidQOIRecentColors> CONSTRUCTOR = findConstructor();
+
+		private static Constructor<? extends FluidQOIRecentColors> findConstructor() {
+			try {
+				Class<? extends FluidQOIRecentColors> type =
+						Class.forName(VECTOR_CLASS_NAME).asSubclass(FluidQOIRecentColors.class);
+				return type.getDeclaredConstructor(int.class);
+			} catch (ReflectiveOperationException | LinkageError ignored) {
+				// Not compiled in, or the module is not present
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+import org.digitalmodular.fluidqoi.FluidQOIConfig;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+
+/**
+ * Encodes, decodes and verifies a corpus of image files on all cores, and records per file, format and indexLength
+ * the compression ratio, the encode and decode time per pixel and the number of bytes allocated.
+ * <p>
+ * Times are the fastest of {@code repeats} runs, and are measured on whichever thread processes the file. Allocated
+ * bytes are measured with {@link com.sun.management.ThreadMXBean} (when supported by the JVM, -1 otherwise).
+ * <p>
+ * A file that can't be read, encoded or decoded gets a single result with the error, and no measurements.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-17
+@SuppressWarnings({"UseOfSystemOutOrSystemErr", "CallToPrintStackTrace"})
+final class FluidQOICorpusRunner {
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+	/** A {@code null} format means the format is determined by the encoder */
+	private final List<FluidQOIFormat> formats;
+	private final int[]                indexLengths;
+	private final int                  threads;
+	private final int                  repeats;
+
+	FluidQOICorpusRunner(List<FluidQOIFormat> formats, int[] indexLengths, int threads, int repeats) {
+		this.formats = new ArrayList<>(formats);
+		this.indexLengths = indexLengths.clone();
+		this.threads = threads;
+		this.repeats = repeats;
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadMXBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				sunBean.setThreadAllocatedMemoryEnabled(true);
+				return sunBean;
+			}
+		}
+
+		return null;
+	}
+
+	List<Result> run(List<Path> files) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			AtomicInteger              done    = new AtomicInteger();
+			List<Future<List<Result>>> futures = new ArrayList<>(files.size());
+			for (Path file : files) {
+				futures.add(executor.submit(() -> {
+					List<Result> fileResults = processFile(file);
+
+					int count = done.incrementAndGet();
+					if (count % 1000 == 0) {
+						System.out.println("Processed " + count + " / " + files.size() + " files");
+					}
+
+					return fileResults;
+				}));
+			}
+
+			List<Result> results = new ArrayList<>(files.size() * formats.size() * indexLengths.length);
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.addAll(futures.get(i).get());
+				} catch (ExecutionException ex) {
+					ex.getCause().printStackTrace();
+					results.add(new Result(files.get(i), ex.getCause().toString()));
+				}
+			}
+
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private List<Result> processFile(Path file) throws IOException {
+		BufferedImage image = ImageIO.read(file.toFile());
+		if (image == null) {
+			throw new IOException("Not an image: " + file);
+		}
+
+		long         pixels  = (long)image.getWidth() * image.getHeight();
+		List<Result> results = new ArrayList<>(formats.size() * indexLengths.length);
+
+		for (FluidQOIFormat format : formats) {
+			for (int indexLength : indexLengths) {
+				FluidQOIConfig config = new FluidQOIConfig(indexLength).setFormatOverride(format);
+
+				ByteBuffer encoded         = null;
+				long       encodeNs        = Long.MAX_VALUE;
+				long       encodeAllocated = 0;
+				for (int i = 0; i < repeats; i++) {
+					long allocatedBefore = allocatedBytes();
+					long start           = System.nanoTime();
+					encoded = new FluidQOIImageEncoder(config).encode(image);
+					encodeNs = Math.min(encodeNs, System.nanoTime() - start);
+					encodeAllocated = allocatedBytes() - allocatedBefore;
+				}
+
+				int            encodedBytes    = encoded.remaining();
+				FluidQOIFormat actualFormat    = FluidQOIFormat.fromCode(encoded.get(12) & 0xFF);
+				BufferedImage  decoded         = null;
+				long           decodeNs        = Long.MAX_VALUE;
+				long           decodeAllocated = 0;
+				for (int i = 0; i < repeats; i++) {
+					long allocatedBefore = allocatedBytes();
+					long start           = System.nanoTime();
+					decoded = new FluidQOIImageDecoder().decode(encoded.duplicate());
+					decodeNs = Math.min(decodeNs, System.nanoTime() - start);
+					decodeAllocated = allocatedBytes() - allocatedBefore;
+				}
+
+				BufferedImage expected      = FluidQOITestMain.redrawImage(image, decoded.getType());
+				int           mismatchPixel = FluidQOITestMain.compareImages(new BufferedImage[]{image, expected, decoded});
+
+				results.add(new Result(file, image.getWidth(), image.getHeight(), actualFormat, indexLength,
+				                       encodedBytes, pixels * actualFormat.getBytesPerPixel(),
+				                       encodeNs / (double)pixels, decodeNs / (double)pixels,
+				                       encodeAllocated, decodeAllocated, mismatchPixel));
+			}
+		}
+
+		return results;
+	}
+
+	private static long allocatedBytes() {
+		if (THREAD_MX_BEAN == null) {
+			return -1;
+		}
+
+		return THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+	}
+
+	static void printSummary(List<Result> results) {
+		Map<String, List<Result>> groups   = new LinkedHashMap<>(16);
+		int                       failures = 0;
+		for (Result result : results) {
+			if (result.isFailed()) {
+				failures++;
+				continue;
+			}
+
+			groups.computeIfAbsent(result.format + "/" + result.indexLength, ignored -> new ArrayList<>(1024))
+			      .add(result);
+		}
+
+		System.out.println("Format    Index  Files    Ratio  Encode ns/px  Decode ns/px  Mismatches");
+		for (List<Result> group : groups.values()) {
+			long   rawBytes     = 0;
+			long   encodedBytes = 0;
+			double encodeNs     = 0;
+			double decodeNs     = 0;
+			long   pixels       = 0;
+			int    mismatches   = 0;
+			for (Result result : group) {
+				long resultPixels = (long)result.width * result.height;
+				rawBytes += result.rawBytes;
+				encodedBytes += result.encodedBytes;
+				encodeNs += result.encodeNsPerPixel * resultPixels;
+				decodeNs += result.decodeNsPerPixel * resultPixels;
+				pixels += resultPixels;
+				if (result.mismatchPixel >= 0) {
+					mismatches++;
+				}
+			}
+
+			Result first = group.get(0);
+			System.out.printf("%-9s %5d %6d %8.4f %13.3f %13.3f %11d\n",
+			                  first.format, first.indexLength, group.size(), encodedBytes / (double)rawBytes,
+			                  encodeNs / pixels, decodeNs / pixels, mismatches);
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " file(s) failed");
+		}
+	}
+
+	static void writeCsv(Path file, List<Result> results) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			out.println("file,width,height,format,indexLength,encodedBytes,compressionRatio," +
+			            "encodeNsPerPixel,decodeNsPerPixel,encodeAllocatedBytes,decodeAllocatedBytes," +
+			            "mismatchPixel,error");
+
+			for (Result result : results) {
+				if (result.isFailed()) {
+					out.printf("\"%s\",,,,,,,,,,,,\"%s\"\n",
+					           result.file.toString().replace("\"", "\"\""), result.error.replace("\"", "\"\""));
+					continue;
+				}
+
+				out.printf(Locale.ROOT, "\"%s\",%d,%d,%s,%d,%d,%.6f,%.3f,%.3f,%d,%d,%d,\n",
+				           result.file.toString().replace("\"", "\"\""), result.width, result.height,
+				           result.format, result.indexLength, result.encodedBytes, result.getCompressionRatio(),
+				           result.encodeNsPerPixel, result.decodeNsPerPixel,
+				           result.encodeAllocatedBytes, result.decodeAllocatedBytes, result.mismatchPixel);
+			}
+		}
+	}
+
+	static void writeJson(Path file, List<Result> results) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			out.println('[');
+
+			for (int i = 0; i < results.size(); i++) {
+				Result result = results.get(i);
+				if (result.isFailed()) {
+					out.printf("  {\"file\": \"%s\", \"error\": \"%s\"}%s\n",
+					           escapeJson(result.file.toString()), escapeJson(result.error),
+					           i + 1 < results.size() ? "," : "");
+					continue;
+				}
+
+				out.printf(Locale.ROOT,
+				           "  {\"file\": \"%s\", \"width\": %d, \"height\": %d, \"format\": \"%s\", " +
+				           "\"indexLength\": %d, \"encodedBytes\": %d, \"compressionRatio\": %.6f, " +
+				           "\"encodeNsPerPixel\": %.3f, \"decodeNsPerPixel\": %.3f, " +
+				           "\"encodeAllocatedBytes\": %d, \"decodeAllocatedBytes\": %d, \"mismatchPixel\": %d, " +
+				           "\"error\": null}%s\n",
+				           escapeJson(result.file.toString()), result.width, result.height,
+				           result.format, result.indexLength, result.encodedBytes, result.getCompressionRatio(),
+				           result.encodeNsPerPixel, result.decodeNsPerPixel,
+				           result.encodeAllocatedBytes, result.decodeAllocatedBytes, result.mismatchPixel,
+				           i + 1 < results.size() ? "," : "");
+			}
+
+			out.println(']');
+		}
+	}
+
+	private static String escapeJson(String string) {
+		StringBuilder sb = new StringBuilder(string.length() + 16);
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	static final class Result {
+		final Path           file;
+		final int            width;
+		final int            height;
+		final FluidQOIFormat format;
+		final int            indexLength;
+		final long           encodedBytes;
+		final long           rawBytes;
+		final double         encodeNsPerPixel;
+		final double         decodeNsPerPixel;
+		final long           encodeAllocatedBytes;
+		final long           decodeAllocatedBytes;
+		/** The first pixel that didn't survive the round-trip, or -1 */
+		final int            mismatchPixel;
+		/** Why the file couldn't be processed, or {@code null} */
+		final String         error;
+
+		@SuppressWarnings("ConstructorWithTooManyParameters")
+		Result(Path file, int width, int height, FluidQOIFormat format, int indexLength,
+		       long encodedBytes, long rawBytes, double encodeNsPerPixel, double decodeNsPerPixel,
+		       long encodeAllocatedBytes, long decodeAllocatedBytes, int mismatchPixel) {
+			this.file = file;
+			this.width = width;
+			this.height = height;
+			this.format = format;
+			this.indexLength = indexLength;
+			this.encodedBytes = encodedBytes;
+			this.rawBytes = rawBytes;
+			this.encodeNsPerPixel = encodeNsPerPixel;
+			this.decodeNsPerPixel = decodeNsPerPixel;
+			this.encodeAllocatedBytes = encodeAllocatedBytes;
+			this.decodeAllocatedBytes = decodeAllocatedBytes;
+			this.mismatchPixel = mismatchPixel;
+			error = null;
+		}
+
+		/**
+		 * Makes the result of a file that couldn't be processed.
+		 */
+		Result(Path file, String error) {
+			this.file = file;
+			width = 0;
+			height = 0;
+			format = null;
+			indexLength = 0;
+			encodedBytes = 0;
+			rawBytes = 0;
+			encodeNsPerPixel = 0;
+			decodeNsPerPixel = 0;
+			encodeAllocatedBytes = -1;
+			decodeAllocatedBytes = -1;
+			mismatchPixel = -1;
+			this.error = error;
+		}
+
+		boolean isFailed() {
+			return error != null;
+		}
+
+		double getCompressionRatio() {
+			return encodedBytes / (double)rawBytes;
+		}
+	}
+}
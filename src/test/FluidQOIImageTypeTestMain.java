@@ -0,0 +1,211 @@
+package test;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.digitalmodular.fluidqoi.FluidQOIConfig;
+import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
+
+/**
+ * Checks that {@link FluidQOIImageEncoder} is lossless for every {@link BufferedImage} type, when it chooses the
+ * format itself. Images that it can't read directly are drawn into a {@code TYPE_3BYTE_BGR} or
+ * {@code TYPE_4BYTE_ABGR} image, and have to decode to exactly the drawn pixels.
+ * <p>
+ * Every image is filled with every sample value in order, with random sample values, and with 256 single values
+ * that are spread over the range of the samples. A single value lets the encoder choose a smaller format, which is
+ * only lossless when it analyzes the same pixels that it encodes.
+ * <p>
+ * Usage: {@code FluidQOIImageTypeTestMain [seed]}. Exits with status 1 when any check fails.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-18
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public final class FluidQOIImageTypeTestMain {
+	private static final int[] IMAGE_TYPES = {BufferedImage.TYPE_INT_RGB,
+	                                          BufferedImage.TYPE_INT_ARGB,
+	                                          BufferedImage.TYPE_INT_ARGB_PRE,
+	                                          BufferedImage.TYPE_INT_BGR,
+	                                          BufferedImage.TYPE_3BYTE_BGR,
+	                                          BufferedImage.TYPE_4BYTE_ABGR,
+	                                          BufferedImage.TYPE_4BYTE_ABGR_PRE,
+	                                          BufferedImage.TYPE_USHORT_565_RGB,
+	                                          BufferedImage.TYPE_USHORT_555_RGB,
+	                                          BufferedImage.TYPE_BYTE_GRAY,
+	                                          BufferedImage.TYPE_USHORT_GRAY,
+	                                          BufferedImage.TYPE_BYTE_BINARY,
+	                                          BufferedImage.TYPE_BYTE_INDEXED};
+	private static final int   WIDTH       = 16;
+	private static final int   HEIGHT      = 16;
+
+	private static int checks   = 0;
+	private static int failures = 0;
+
+	private FluidQOIImageTypeTestMain() {
+	}
+
+	public static void main(String... args) throws IOException {
+		FluidQOIRawEncoder.debugging = false;
+		FluidQOIRawDecoder.debugging = false;
+
+		long   seed   = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		Random random = new Random(seed);
+
+		for (int imageType : IMAGE_TYPES) {
+			BufferedImage image = new BufferedImage(WIDTH, HEIGHT, imageType);
+
+			fillSamples(image, null);
+			checkRoundTrip(image, "every sample value");
+
+			fillSamples(image, random);
+			checkRoundTrip(image, "random sample values");
+
+			for (int level = 0; level < 256; level++) {
+				fillSample(image, level);
+				checkRoundTrip(image, "single value, level " + level);
+			}
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Fills every band with the sample values in order, masked to the sample size, or with random sample values.
+	 */
+	private static void fillSamples(BufferedImage image, Random random) {
+		WritableRaster raster = image.getRaster();
+		int[]          sizes  = raster.getSampleModel().getSampleSize();
+
+		for (int band = 0; band < raster.getNumBands(); band++) {
+			int mask = (1 << sizes[band]) - 1;
+			for (int y = 0; y < raster.getHeight(); y++) {
+				for (int x = 0; x < raster.getWidth(); x++) {
+					int i      = y * raster.getWidth() + x;
+					int sample = random == null ? i * (band * 2 + 1) : random.nextInt();
+					raster.setSample(x, y, band, sample & mask);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills every band with the same sample value, scaled from 0-255 to the sample size.
+	 */
+	private static void fillSample(BufferedImage image, int level) {
+		WritableRaster raster = image.getRaster();
+		int[]          sizes  = raster.getSampleModel().getSampleSize();
+
+		for (int band = 0; band < raster.getNumBands(); band++) {
+			int mask   = (1 << sizes[band]) - 1;
+			int sample = level * mask / 255;
+			for (int y = 0; y < raster.getHeight(); y++) {
+				for (int x = 0; x < raster.getWidth(); x++) {
+					raster.setSample(x, y, band, sample);
+				}
+			}
+		}
+	}
+
+	private static void checkRoundTrip(BufferedImage image, String what) throws IOException {
+		String name = getTypeName(image.getType()) + " (" + what + ')';
+
+		ByteBuffer    encoded  = new FluidQOIImageEncoder(new FluidQOIConfig(16)).encode(image);
+		BufferedImage decoded  = new FluidQOIImageDecoder().decode(encoded);
+		BufferedImage expected = drawImage(image);
+
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int expectedPixel = expected.getRGB(x, y);
+				int decodedPixel  = decoded.getRGB(x, y);
+				if (decodedPixel != expectedPixel) {
+					fail(name, String.format("Pixel (%d, %d) differs: %08x instead of %08x",
+					                         x, y, decodedPixel, expectedPixel));
+					return;
+				}
+			}
+		}
+
+		checks++;
+	}
+
+	/**
+	 * @return The pixels as the encoder reads them: the image itself for the types that it reads directly, otherwise
+	 * the image drawn into a {@code TYPE_3BYTE_BGR} or {@code TYPE_4BYTE_ABGR} image.
+	 */
+	private static BufferedImage drawImage(BufferedImage image) {
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_USHORT_565_RGB:
+			case BufferedImage.TYPE_USHORT_555_RGB:
+				return image;
+		}
+
+		boolean hasAlpha  = image.getColorModel().hasAlpha();
+		int     imageType = hasAlpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR;
+
+		BufferedImage drawnImage = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+
+		Graphics2D g = drawnImage.createGraphics();
+		try {
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+
+		return drawnImage;
+	}
+
+	private static String getTypeName(int imageType) {
+		switch (imageType) {
+			case BufferedImage.TYPE_INT_RGB:
+				return "TYPE_INT_RGB";
+			case BufferedImage.TYPE_INT_ARGB:
+				return "TYPE_INT_ARGB";
+			case BufferedImage.TYPE_INT_ARGB_PRE:
+				return "TYPE_INT_ARGB_PRE";
+			case BufferedImage.TYPE_INT_BGR:
+				return "TYPE_INT_BGR";
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return "TYPE_3BYTE_BGR";
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				return "TYPE_4BYTE_ABGR";
+			case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+				return "TYPE_4BYTE_ABGR_PRE";
+			case BufferedImage.TYPE_USHORT_565_RGB:
+				return "TYPE_USHORT_565_RGB";
+			case BufferedImage.TYPE_USHORT_555_RGB:
+				return "TYPE_USHORT_555_RGB";
+			case BufferedImage.TYPE_BYTE_GRAY:
+				return "TYPE_BYTE_GRAY";
+			case BufferedImage.TYPE_USHORT_GRAY:
+				return "TYPE_USHORT_GRAY";
+			case BufferedImage.TYPE_BYTE_BINARY:
+				return "TYPE_BYTE_BINARY";
+			case BufferedImage.TYPE_BYTE_INDEXED:
+				return "TYPE_BYTE_INDEXED";
+			default:
+				return "type " + imageType;
+		}
+	}
+
+	private static void fail(String name, String message) {
+		checks++;
+		failures++;
+		System.out.println(name + ": " + message);
+	}
+}
@@ -0,0 +1,254 @@
+package test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.digitalmodular.fluidqoi.FluidQOIChannelOrder;
+import org.digitalmodular.fluidqoi.FluidQOIConfig;
+import org.digitalmodular.fluidqoi.FluidQOIFormat;
+import org.digitalmodular.fluidqoi.FluidQOIIncrementalDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
+
+/**
+ * Checks the decoders that receive the ops a part at a time: {@link FluidQOIIncrementalDecoder}, and
+ * {@link FluidQOIRawDecoder} reading from a channel. Every format and image is decoded with every chunk length from 1
+ * to {@value #MAX_CHUNK_LENGTH}, and with chunks of random lengths, and has to match decoding it at once. Every
+ * truncated length of every image has to be reported as truncated.
+ * <p>
+ * The images are small synthetic images with runs, small and large color changes, and translucent pixels, so every op
+ * occurs and ops straddle the chunks at every offset.
+ * <p>
+ * Usage: {@code FluidQOIIncrementalTestMain [seed]}. Exits with status 1 when any check fails.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-18
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public final class FluidQOIIncrementalTestMain {
+	private static final int     MAX_CHUNK_LENGTH    = 64;
+	private static final int     RANDOM_CHUNK_ROUNDS = 16;
+	private static final int[]   INDEX_LENGTHS       = {1, 16, 64};
+	/** Width and height of the images, including single rows and columns */
+	private static final int[][] SIZES               = {{1, 1}, {1, 29}, {37, 1}, {23, 17}};
+
+	private static int checks   = 0;
+	private static int failures = 0;
+
+	private FluidQOIIncrementalTestMain() {
+	}
+
+	public static void main(String... args) throws IOException {
+		FluidQOIRawEncoder.debugging = false;
+		FluidQOIRawDecoder.debugging = false;
+
+		long   seed   = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		Random random = new Random(seed);
+
+		for (FluidQOIFormat format : FluidQOIFormat.values()) {
+			for (int indexLength : INDEX_LENGTHS) {
+				for (int[] size : SIZES) {
+					int    width   = size[0];
+					int    height  = size[1];
+					int[]  pixels  = makePixels(random, width * height);
+					byte[] encoded = encode(format, indexLength, pixels, width, height);
+					String name    = format + " " + width + 'x' + height + " indexLength=" + indexLength;
+
+					int[] expected = new int[width * height];
+					new FluidQOIRawDecoder().decode(ByteBuffer.wrap(encoded), expected, 0, width,
+					                                FluidQOIChannelOrder.ARGB);
+
+					for (int chunkLength = 1; chunkLength <= MAX_CHUNK_LENGTH; chunkLength++) {
+						int[] chunkLengths = {chunkLength};
+						checkPushDecoder(name, encoded, chunkLengths, expected);
+						checkChannelDecoder(name, encoded, chunkLengths, expected, width);
+					}
+
+					for (int round = 0; round < RANDOM_CHUNK_ROUNDS; round++) {
+						int[] chunkLengths = random.ints(16, 1, MAX_CHUNK_LENGTH * 2).toArray();
+						checkPushDecoder(name, encoded, chunkLengths, expected);
+						checkChannelDecoder(name, encoded, chunkLengths, expected, width);
+					}
+
+					for (int length = 0; length < encoded.length; length++) {
+						checkTruncated(name, Arrays.copyOf(encoded, length), width, height);
+					}
+				}
+			}
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return Pixels with runs, small and large color changes, and translucent pixels.
+	 */
+	private static int[] makePixels(Random random, int length) {
+		int[] pixels = new int[length];
+		int   argb   = 0xFF000000;
+		for (int i = 0; i < length; i++) {
+			switch (random.nextInt(6)) {
+				case 0: // Run
+					break;
+				case 1: // Recent color
+					argb = i > 0 ? pixels[random.nextInt(i)] : argb;
+					break;
+				case 2: // Small change
+					argb = argb & 0xFF000000 | (argb + random.nextInt(0x030303)) & 0x00FFFFFF;
+					break;
+				case 3: // Translucent
+					argb = random.nextInt();
+					break;
+				default:
+					argb = 0xFF000000 | random.nextInt(0x01000000);
+					break;
+			}
+
+			pixels[i] = argb;
+		}
+
+		return pixels;
+	}
+
+	private static byte[] encode(FluidQOIFormat format, int indexLength, int[] pixels, int width, int height) {
+		FluidQOIConfig config  = new FluidQOIConfig(indexLength).setFormatOverride(format);
+		ByteBuffer     encoded = new FluidQOIRawEncoder(config).encode(pixels, 0, width, height, width,
+		                                                               FluidQOIChannelOrder.ARGB);
+
+		byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Feeds the image in chunks, and checks after every chunk that the rows that are complete are correct, and that
+	 * the image is only complete after the last chunk.
+	 *
+	 * @param chunkLengths The lengths of the chunks, repeated until the end of the image
+	 */
+	private static void checkPushDecoder(String name, byte[] encoded, int[] chunkLengths, int[] expected)
+			throws IOException {
+		FluidQOIIncrementalDecoder decoder = new FluidQOIIncrementalDecoder();
+
+		int   completedRows = 0;
+		int[] rows          = new int[expected.length];
+		int   position      = 0;
+		for (int chunk = 0; position < encoded.length; chunk++) {
+			int length  = Math.min(chunkLengths[chunk % chunkLengths.length], encoded.length - position);
+			int rowsNow = decoder.feed(encoded, position, length);
+			position += length;
+
+			if (rowsNow < completedRows) {
+				fail(name, "push, chunks " + Arrays.toString(chunkLengths), "rows went from " + completedRows +
+				                                                            " back to " + rowsNow);
+				return;
+			} else if (decoder.isComplete() != (position == encoded.length)) {
+				fail(name, "push, chunks " + Arrays.toString(chunkLengths),
+				     "complete=" + decoder.isComplete() + " after " + position + '/' + encoded.length + " bytes");
+				return;
+			}
+
+			if (rowsNow > completedRows) {
+				int width = decoder.getHeader().getWidth();
+				decoder.getRows(completedRows, rowsNow, rows, completedRows * width, width);
+				completedRows = rowsNow;
+			}
+		}
+
+		check(name, "push, chunks " + Arrays.toString(chunkLengths), Arrays.equals(rows, expected));
+	}
+
+	private static void checkChannelDecoder(String name, byte[] encoded, int[] chunkLengths, int[] expected,
+	                                        int width) throws IOException {
+		int[] pixels = new int[expected.length];
+		new FluidQOIRawDecoder().decode(new ChunkedChannel(encoded, chunkLengths), pixels, 0, width,
+		                                FluidQOIChannelOrder.ARGB);
+
+		check(name, "channel, chunks " + Arrays.toString(chunkLengths), Arrays.equals(pixels, expected));
+	}
+
+	/**
+	 * Checks that every decoder notices that the image is truncated.
+	 */
+	private static void checkTruncated(String name, byte[] truncated, int width, int height) throws IOException {
+		String what = "truncated to " + truncated.length + " bytes";
+
+		FluidQOIIncrementalDecoder pushDecoder = new FluidQOIIncrementalDecoder();
+		pushDecoder.feed(truncated, 0, truncated.length);
+		check(name, "push, " + what, !pushDecoder.isComplete());
+
+		int[] pixels = new int[width * height];
+		try {
+			new FluidQOIRawDecoder().decode(ByteBuffer.wrap(truncated), pixels, 0, width, FluidQOIChannelOrder.ARGB);
+			fail(name, "buffer, " + what, "no EOFException");
+		} catch (EOFException ignored) {
+			checks++;
+		}
+
+		try {
+			new FluidQOIRawDecoder().decode(new ChunkedChannel(truncated, new int[]{7}), pixels, 0, width,
+			                                FluidQOIChannelOrder.ARGB);
+			fail(name, "channel, " + what, "no EOFException");
+		} catch (EOFException ignored) {
+			checks++;
+		}
+	}
+
+	private static void check(String name, String what, boolean passed) {
+		if (passed) {
+			checks++;
+		} else {
+			fail(name, what, "pixels differ");
+		}
+	}
+
+	private static void fail(String name, String what, String message) {
+		checks++;
+		failures++;
+		System.out.println(name + " (" + what + "): " + message);
+	}
+
+	/**
+	 * Returns the image in chunks of the given lengths, like a socket would.
+	 */
+	private static final class ChunkedChannel implements ReadableByteChannel {
+		private final byte[] bytes;
+		private final int[]  chunkLengths;
+		private       int    position = 0;
+		private       int    chunk    = 0;
+
+		ChunkedChannel(byte[] bytes, int[] chunkLengths) {
+			this.bytes = bytes;
+			this.chunkLengths = chunkLengths;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (position == bytes.length) {
+				return -1;
+			}
+
+			int length = Math.min(Math.min(chunkLengths[chunk++ % chunkLengths.length], bytes.length - position),
+			                      dst.remaining());
+			dst.put(bytes, position, length);
+			position += length;
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
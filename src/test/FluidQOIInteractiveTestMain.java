@@ -17,8 +17,8 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
-import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
-import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
 
 /**
  * @author Mark Jeronimus
@@ -37,8 +37,8 @@ public class FluidQOIInteractiveTestMain extends JPanel {
 //		FluidQOITestMain.collectImageFilesRecursively(FluidQOITestMain.files, Paths.get("qoi_benchmark_suite"));
 		FluidQOITestMain.files.sort(Comparator.comparing(Path::getFileName));
 
-		FluidQOIImageEncoder.debugging = true;
-		FluidQOIImageDecoder.debugging = true;
+		FluidQOIRawEncoder.debugging = true;
+		FluidQOIRawDecoder.debugging = true;
 
 		if (FluidQOITestMain.files.isEmpty()) {
 			System.err.println("No files found");
@@ -1,5 +1,6 @@
 package test;
 
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
@@ -15,15 +16,20 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 import javax.imageio.ImageIO;
 
 import org.digitalmodular.fluidqoi.FluidQOIConfig;
 import org.digitalmodular.fluidqoi.FluidQOIFormat;
 import org.digitalmodular.fluidqoi.FluidQOIImageDecoder;
 import org.digitalmodular.fluidqoi.FluidQOIImageEncoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawDecoder;
+import org.digitalmodular.fluidqoi.FluidQOIRawEncoder;
 
 /**
  * @author Mark Jeronimus
@@ -37,27 +43,103 @@ public final class FluidQOITestMain {
 	private FluidQOITestMain() {
 	}
 
-	public static void main(String... args) throws IOException {
-		FluidQOIImageEncoder.debugging = false;
-		FluidQOIImageDecoder.debugging = false;
+	/**
+	 * Usage: {@code FluidQOITestMain [options] [<directory>...]}
+	 * <pre>
+	 * -f formats        Comma-separated list of formats, or AUTO to let the encoder decide (default: AUTO)
+	 * -i indexLengths   Comma-separated list of indexLengths (default: 16)
+	 * -t threads        Number of threads (default: all cores)
+	 * -r repeats        Number of times to encode and decode every file, for more stable timings (default: 1)
+	 * -o prefix         Write the results to prefix.csv and prefix.json
+	 * </pre>
+	 * Exits with status 1 when a file couldn't be processed or didn't survive the round-trip.
+	 */
+	public static void main(String... args) throws IOException, InterruptedException {
+		FluidQOIRawEncoder.debugging = false;
+		FluidQOIRawDecoder.debugging = false;
+
+		List<FluidQOIFormat> formats      = Collections.singletonList(null);
+		int[]                indexLengths = {16};
+		int                  threads      = Runtime.getRuntime().availableProcessors();
+		int                  repeats      = 1;
+		String               outputPrefix = null;
+		List<Path>           directories  = new ArrayList<>(4);
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("-")) {
+				directories.add(Paths.get(arg));
+				continue;
+			}
 
-//		collectImageFilesRecursively(files, Paths.get("qoi_test_images"));
-		collectImageFilesRecursively(files, Paths.get("images-pixelart-tiles"));
-//		collectImageFilesRecursively(files, Paths.get("images-lance"));
-//		collectImageFilesRecursively(files, Paths.get("qoi_benchmark_suite"));
-		files.sort(Comparator.comparing(Path::getFileName));
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for option " + arg);
+			}
 
-		for (Path file : files) {
-			BufferedImage[] images = convertImage(file);
+			String value = args[++i];
+			switch (arg) {
+				case "-f":
+					formats = Arrays.stream(value.split(","))
+					                .map(name -> "AUTO".equals(name) ? null : FluidQOIFormat.valueOf(name))
+					                .collect(Collectors.toList());
+					break;
+				case "-i":
+					indexLengths = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+					break;
+				case "-t":
+					threads = Integer.parseInt(value);
+					break;
+				case "-r":
+					repeats = Integer.parseInt(value);
+					break;
+				case "-o":
+					outputPrefix = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
 
-			int mismatchPixel = compareImages(images);
-			if (mismatchPixel >= 0) {
+		if (directories.isEmpty()) {
+//			directories.add(Paths.get("qoi_test_images"));
+			directories.add(Paths.get("images-pixelart-tiles"));
+//			directories.add(Paths.get("images-lance"));
+//			directories.add(Paths.get("qoi_benchmark_suite"));
+		}
+
+		for (Path directory : directories) {
+			collectImageFilesRecursively(files, directory);
+		}
+		files.sort(Comparator.comparing(Path::getFileName));
+
+		FluidQOICorpusRunner              runner  = new FluidQOICorpusRunner(formats, indexLengths, threads, repeats);
+		List<FluidQOICorpusRunner.Result> results = runner.run(files);
+
+		int failures   = 0;
+		int mismatches = 0;
+		for (FluidQOICorpusRunner.Result result : results) {
+			if (result.isFailed()) {
+				failures++;
+				System.out.println(result.file.getFileName() + ": Failed: " + result.error);
+			} else if (result.mismatchPixel >= 0) {
+				mismatches++;
 				System.out.println(
-						file.getFileName() + ": Images differ at pixel " + mismatchPixel + " / " +
-						images[0].getWidth() * images[0].getHeight() + " (" +
-						mismatchPixel % images[2].getWidth() + ", " + mismatchPixel / images[2].getWidth() + ')');
+						result.file.getFileName() + " (" + result.format + ", " + result.indexLength + "): " +
+						"Images differ at pixel " + result.mismatchPixel + " / " + result.width * result.height +
+						" (" + result.mismatchPixel % result.width + ", " + result.mismatchPixel / result.width + ')');
 			}
 		}
+
+		FluidQOICorpusRunner.printSummary(results);
+
+		if (outputPrefix != null) {
+			FluidQOICorpusRunner.writeCsv(Paths.get(outputPrefix + ".csv"), results);
+			FluidQOICorpusRunner.writeJson(Paths.get(outputPrefix + ".json"), results);
+		}
+
+		if (failures > 0 || mismatches > 0) {
+			System.exit(1);
+		}
 	}
 
 	static void collectImageFilesRecursively(Collection<Path> files, Path path) throws IOException {
@@ -90,13 +172,7 @@ public final class FluidQOITestMain {
 			ByteBuffer     qoiData = new FluidQOIImageEncoder(config).encode(image);
  			BufferedImage  image2  = new FluidQOIImageDecoder().decode(qoiData);
 
-			BufferedImage image1 = new BufferedImage(image2.getWidth(), image2.getHeight(), image2.getType());
-			Graphics2D    g      = image1.createGraphics();
-			try {
-				g.drawImage(image, 0, 0, null);
-			} finally {
-				g.dispose();
-			}
+			BufferedImage image1 = redrawImage(image, image2.getType());
 
 //			String filename = file.getFileName().toString();
 //			filename = filename.substring(0, filename.length() - 4) + ".qoi565";
@@ -110,6 +186,22 @@ public final class FluidQOITestMain {
 		}
 	}
 
+	/**
+	 * @return A copy of the image, converted to the given type the same way as it's displayed.
+	 */
+	static BufferedImage redrawImage(BufferedImage image, int imageType) {
+		BufferedImage redrawn = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+		Graphics2D    g       = redrawn.createGraphics();
+		try {
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+
+		return redrawn;
+	}
+
 	static int compareImages(BufferedImage[] images) {
 		DataBuffer dataBuffer1 = images[1].getRaster().getDataBuffer();
 		DataBuffer dataBuffer2 = images[2].getRaster().getDataBuffer();